@@ -0,0 +1,160 @@
+package com.ppcrong.loglib;
+
+/**
+ * Adaptive flush policy
+ * <p>
+ * Watches incoming write rate and flush latency (both smoothed by EWMA). When traffic is sparse,
+ * i.e. the next write is expected later than a few flush latencies, flushing now costs nearly
+ * nothing and it keeps end-to-end latency low. Under bursts it batches writes until the batch
+ * reaches max bytes or the oldest pending write reaches max latency.
+ * <p>
+ * It's not thread safe, the log writer calls it under its own lock.
+ */
+public class AdaptiveFlusher {
+
+    /**
+     * Flush decision
+     */
+    public enum Decision {
+        /**
+         * Flush after every write
+         */
+        FLUSH_NOW,
+        /**
+         * Batch writes and flush later
+         */
+        BATCH
+    }
+
+    /**
+     * Weight of the new sample in EWMA
+     */
+    private static final double ALPHA = 0.2;
+    /**
+     * Sparse traffic: the expected write interval is longer than this many flush latencies
+     */
+    private static final int SPARSE_FACTOR = 4;
+
+    private final long mMaxLatencyNanos;
+    private final int mMaxBatchBytes;
+    private final LogMetrics mMetrics;
+    private double mIntervalNanos = Double.MAX_VALUE;
+    private double mBytesPerWrite = 0;
+    private double mFlushLatencyNanos = 0;
+    private long mLastWriteNanos = 0;
+    private long mPendingBytes = 0;
+    private long mPendingSinceNanos = 0;
+    private Decision mDecision = Decision.FLUSH_NOW;
+
+    /**
+     * Ctor
+     *
+     * @param maxLatencyMs  The max time a write stays unflushed
+     * @param maxBatchBytes The max bytes batched before flush
+     * @param metrics       The metrics to publish decision, could be null
+     */
+    public AdaptiveFlusher(long maxLatencyMs, int maxBatchBytes, LogMetrics metrics) {
+        mMaxLatencyNanos = maxLatencyMs * 1000000L;
+        mMaxBatchBytes = maxBatchBytes;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Get the max time a write stays unflushed
+     *
+     * @return The max latency in ns
+     */
+    public long getMaxLatencyNanos() {
+        return mMaxLatencyNanos;
+    }
+
+    /**
+     * Get the unflushed bytes
+     *
+     * @return The pending bytes
+     */
+    public long getPendingBytes() {
+        return mPendingBytes;
+    }
+
+    /**
+     * Record a write and decide whether to flush now
+     *
+     * @param bytes    The written bytes
+     * @param nowNanos The current time by {@link System#nanoTime()}
+     * @return true to flush now, false to batch
+     */
+    public boolean onWrite(int bytes, long nowNanos) {
+        if (mLastWriteNanos != 0) {
+            double interval = nowNanos - mLastWriteNanos;
+            mIntervalNanos = mIntervalNanos == Double.MAX_VALUE ? interval : ewma(mIntervalNanos, interval);
+        }
+        mBytesPerWrite = mBytesPerWrite == 0 ? bytes : ewma(mBytesPerWrite, bytes);
+        mLastWriteNanos = nowNanos;
+        if (mPendingBytes == 0) mPendingSinceNanos = nowNanos;
+        mPendingBytes += bytes;
+
+        mDecision = mIntervalNanos > mFlushLatencyNanos * SPARSE_FACTOR && mIntervalNanos >= mMaxLatencyNanos / SPARSE_FACTOR
+                ? Decision.FLUSH_NOW : Decision.BATCH;
+        publish();
+        return mDecision == Decision.FLUSH_NOW || mPendingBytes >= mMaxBatchBytes ||
+                nowNanos - mPendingSinceNanos >= mMaxLatencyNanos;
+    }
+
+    /**
+     * Get the time left until pending writes must be flushed
+     *
+     * @param nowNanos The current time by {@link System#nanoTime()}
+     * @return The delay in ns, 0 to flush now, -1 if nothing pending
+     */
+    public long getFlushDelayNanos(long nowNanos) {
+        if (mPendingBytes == 0) return -1;
+        if (mDecision == Decision.FLUSH_NOW) return 0;
+        long delay = mMaxLatencyNanos - (nowNanos - mPendingSinceNanos);
+        // Flush earlier when the batch is expected to be full before max latency
+        double rate = getWriteRate();
+        if (rate > 0) {
+            delay = Math.min(delay, (long) ((mMaxBatchBytes - mPendingBytes) / rate * 1e9));
+        }
+        return Math.max(0, delay);
+    }
+
+    /**
+     * Record a finished flush
+     *
+     * @param latencyNanos The time took by flush
+     */
+    public void onFlush(long latencyNanos) {
+        mFlushLatencyNanos = mFlushLatencyNanos == 0 ? latencyNanos : ewma(mFlushLatencyNanos, latencyNanos);
+        if (mMetrics != null) mMetrics.onFlush(mPendingBytes);
+        mPendingBytes = 0;
+        publish();
+    }
+
+    /**
+     * Drop the pending state, e.g. when a new log file is opened
+     */
+    public void reset() {
+        mPendingBytes = 0;
+        mLastWriteNanos = 0;
+    }
+
+    /**
+     * Get the smoothed incoming write rate
+     *
+     * @return The rate in bytes per second
+     */
+    public double getWriteRate() {
+        return mIntervalNanos == Double.MAX_VALUE ? 0 : mBytesPerWrite / Math.max(mIntervalNanos, 1) * 1e9;
+    }
+
+    private void publish() {
+        if (mMetrics == null) return;
+        long delay = mDecision == Decision.FLUSH_NOW ? 0 : mMaxLatencyNanos;
+        mMetrics.setFlushState(getWriteRate(), (long) mFlushLatencyNanos, mDecision, delay);
+    }
+
+    private static double ewma(double avg, double sample) {
+        return avg + ALPHA * (sample - avg);
+    }
+}
@@ -0,0 +1,26 @@
+package com.ppcrong.loglib;
+
+import android.util.Log;
+
+import com.socks.library.KLog;
+
+/**
+ * Android diagnostics, reported through KLog
+ */
+public class AndroidLogDiagnostics implements LogDiagnostics {
+
+    @Override
+    public void i(String msg) {
+        KLog.i(msg);
+    }
+
+    @Override
+    public void e(String msg) {
+        KLog.e(msg);
+    }
+
+    @Override
+    public void e(Throwable t) {
+        KLog.e(Log.getStackTraceString(t));
+    }
+}
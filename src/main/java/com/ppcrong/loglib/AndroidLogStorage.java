@@ -0,0 +1,72 @@
+package com.ppcrong.loglib;
+
+import android.os.Environment;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Android storage, the state is read from a {@link StorageStateCache}
+ */
+public class AndroidLogStorage implements LogStorage {
+
+    private volatile StorageStateCache mStorageStateCache;
+
+    /**
+     * Ctor with the default storage state cache
+     */
+    public AndroidLogStorage() {
+        this(StorageStateCache.getDefault());
+    }
+
+    /**
+     * Ctor
+     *
+     * @param cache The storage state cache
+     */
+    public AndroidLogStorage(StorageStateCache cache) {
+        mStorageStateCache = cache;
+    }
+
+    /**
+     * Set the storage state cache
+     *
+     * @param cache The storage state cache
+     */
+    public void setStorageStateCache(@NonNull StorageStateCache cache) {
+        mStorageStateCache = cache;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return mStorageStateCache.isWritable();
+    }
+
+    @Override
+    public boolean isReadable() {
+        return mStorageStateCache.isReadable();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public File getExternalStorageDirectory() {
+        return Environment.getExternalStorageDirectory();
+    }
+
+    @Override
+    public void allocate(RandomAccessFile file, long offset, long length) throws IOException {
+        try {
+            Os.posix_fallocate(file.getFD(), offset, length);
+        } catch (ErrnoException e) {
+            // The file system can't allocate (FAT, FUSE...), extend the size only
+            if (e.errno != OsConstants.EOPNOTSUPP && e.errno != OsConstants.ENOSYS) throw e.rethrowAsIOException();
+            if (file.length() < offset + length) file.setLength(offset + length);
+        }
+    }
+}
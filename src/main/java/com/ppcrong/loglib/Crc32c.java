@@ -0,0 +1,64 @@
+package com.ppcrong.loglib;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C (Castagnoli) checksum
+ * <p>
+ * java.util.zip.CRC32C is only available since Java 9 (Android API 26), this is the table-driven
+ * implementation for older platforms.
+ */
+public class Crc32c implements Checksum {
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    private int mCrc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        mCrc = (mCrc >>> 8) ^ TABLE[(mCrc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int crc = mCrc;
+        for (int i = off; i < off + len; i++) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b[i]) & 0xFF];
+        }
+        mCrc = crc;
+    }
+
+    @Override
+    public long getValue() {
+        return (~mCrc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        mCrc = 0xFFFFFFFF;
+    }
+
+    /**
+     * Calculate the checksum of bytes
+     *
+     * @param b   The bytes
+     * @param off The offset
+     * @param len The length
+     * @return The checksum
+     */
+    public static int compute(byte[] b, int off, int len) {
+        Crc32c crc = new Crc32c();
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+}
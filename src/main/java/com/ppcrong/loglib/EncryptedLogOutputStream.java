@@ -0,0 +1,177 @@
+package com.ppcrong.loglib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Output stream encrypts log file by fixed-size blocks with AES-GCM
+ * <p>
+ * File layout: header [magic][block size][file id], then one slot per block:
+ * [12 bytes nonce][4 bytes plaintext length][ciphertext + 16 bytes tag]. Every slot has the same
+ * size except the last one, so block i is located and decrypted independently. Each seal uses a
+ * fresh random nonce, a flushed partial block is sealed again in the same slot when it grows.
+ * The AAD binds file id, block index, length and the final flag, so blocks can't be moved and a
+ * cut file is detected by the missing final block.
+ */
+public class EncryptedLogOutputStream extends OutputStream {
+
+    static final int MAGIC = 0x4C4C4531; // "LLE1"
+    static final int FILE_ID_SIZE = 16;
+    static final int HEADER_SIZE = 4 + 4 + FILE_ID_SIZE;
+    static final int NONCE_SIZE = 12;
+    static final int TAG_SIZE = 16;
+    static final int SLOT_HEADER_SIZE = NONCE_SIZE + 4;
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    /**
+     * Default plaintext bytes of a block
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final Cipher mCipher;
+    private final SecretKey mKey;
+    private final SecureRandom mRandom = new SecureRandom();
+    private final byte[] mFileId = new byte[FILE_ID_SIZE];
+    private final byte[] mBlock;
+    private final byte[] mSealed;
+    private final byte[] mNonce = new byte[NONCE_SIZE];
+    private final ByteBuffer mAad = ByteBuffer.allocate(FILE_ID_SIZE + 8 + 4 + 1);
+    private int mBlockPos = 0;
+    private long mBlockIndex = 0;
+    private boolean mClosed = false;
+
+    /**
+     * Ctor, the file is truncated
+     *
+     * @param file        The file to write
+     * @param keyProvider The key provider
+     * @param blockSize   The plaintext bytes of a block
+     * @throws IOException If the file can't be created or the key isn't available
+     */
+    public EncryptedLogOutputStream(File file, LogKeyProvider keyProvider, int blockSize) throws IOException {
+        if (blockSize <= 0) throw new IllegalArgumentException("blockSize must be positive");
+        mBlock = new byte[blockSize];
+        mSealed = new byte[SLOT_HEADER_SIZE + blockSize + TAG_SIZE];
+        try {
+            mKey = keyProvider.getKey();
+            mCipher = Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cipher not available", e);
+        }
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        try {
+            mFile.setLength(0);
+            mRandom.nextBytes(mFileId);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(blockSize).put(mFileId).flip();
+            while (header.hasRemaining()) mChannel.write(header, header.position());
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the file offset of a block slot
+     *
+     * @param blockSize  The plaintext bytes of a block
+     * @param blockIndex The block index
+     * @return The offset
+     */
+    static long slotOffset(int blockSize, long blockIndex) {
+        return HEADER_SIZE + blockIndex * (SLOT_HEADER_SIZE + blockSize + TAG_SIZE);
+    }
+
+    /**
+     * Build AAD of a block
+     */
+    static void aad(ByteBuffer aad, byte[] fileId, long blockIndex, int length, boolean last) {
+        aad.clear();
+        aad.put(fileId).putLong(blockIndex).putInt(length).put((byte) (last ? 1 : 0)).flip();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mClosed) throw new IOException("Stream closed");
+        while (len > 0) {
+            // A full block is sealed when more data comes, so close can mark it as the last one
+            if (mBlockPos == mBlock.length) {
+                seal(false);
+                mBlockIndex++;
+                mBlockPos = 0;
+            }
+            int n = Math.min(len, mBlock.length - mBlockPos);
+            System.arraycopy(b, off, mBlock, mBlockPos, n);
+            mBlockPos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Seal the current partial block into its slot, it's sealed again when it grows
+     *
+     * @throws IOException If write fails
+     */
+    @Override
+    public void flush() throws IOException {
+        if (mClosed || mBlockPos == 0) return;
+        seal(false);
+    }
+
+    /**
+     * Seal the last block with final flag and close the file
+     *
+     * @throws IOException If write fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            long end = seal(true);
+            mChannel.truncate(end);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private long seal(boolean last) throws IOException {
+        mRandom.nextBytes(mNonce);
+        ByteBuffer slot = ByteBuffer.wrap(mSealed);
+        slot.put(mNonce).putInt(mBlockPos);
+        int sealedLen;
+        try {
+            mCipher.init(Cipher.ENCRYPT_MODE, mKey, new GCMParameterSpec(TAG_SIZE * 8, mNonce));
+            aad(mAad, mFileId, mBlockIndex, mBlockPos, last);
+            mCipher.updateAAD(mAad);
+            sealedLen = mCipher.doFinal(mBlock, 0, mBlockPos, mSealed, SLOT_HEADER_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Encrypt block " + mBlockIndex + " fail", e);
+        }
+        long offset = slotOffset(mBlock.length, mBlockIndex);
+        ByteBuffer buf = ByteBuffer.wrap(mSealed, 0, SLOT_HEADER_SIZE + sealedLen);
+        while (buf.hasRemaining()) {
+            mChannel.write(buf, offset + buf.position());
+        }
+        return offset + buf.limit();
+    }
+}
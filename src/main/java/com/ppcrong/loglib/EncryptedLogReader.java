@@ -0,0 +1,183 @@
+package com.ppcrong.loglib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Reader of log file written by {@link EncryptedLogOutputStream}
+ * <p>
+ * Any block is decrypted independently by {@link #readBlock(long)}, {@link #openStream()} decrypts
+ * blocks in sequence.
+ */
+public class EncryptedLogReader implements Closeable {
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final Cipher mCipher;
+    private final SecretKey mKey;
+    private final int mBlockSize;
+    private final byte[] mFileId = new byte[EncryptedLogOutputStream.FILE_ID_SIZE];
+    private final long mBlockCount;
+    private final ByteBuffer mAad = ByteBuffer.allocate(EncryptedLogOutputStream.FILE_ID_SIZE + 8 + 4 + 1);
+    private final byte[] mSealed;
+
+    /**
+     * Ctor
+     *
+     * @param file        The encrypted log file
+     * @param keyProvider The key provider
+     * @throws IOException If the file isn't an encrypted log or the key isn't available
+     */
+    public EncryptedLogReader(File file, LogKeyProvider keyProvider) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(EncryptedLogOutputStream.HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt() != EncryptedLogOutputStream.MAGIC) throw new IOException("Not an encrypted log file");
+            mBlockSize = header.getInt();
+            if (mBlockSize <= 0) throw new IOException("Invalid block size " + mBlockSize);
+            header.get(mFileId);
+            long slotSize = EncryptedLogOutputStream.slotOffset(mBlockSize, 1) -
+                    EncryptedLogOutputStream.slotOffset(mBlockSize, 0);
+            long body = mChannel.size() - EncryptedLogOutputStream.HEADER_SIZE;
+            mBlockCount = body <= 0 ? 0 : (body + slotSize - 1) / slotSize;
+            mSealed = new byte[mBlockSize + EncryptedLogOutputStream.TAG_SIZE];
+            mKey = keyProvider.getKey();
+            mCipher = Cipher.getInstance(EncryptedLogOutputStream.TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            mFile.close();
+            throw new IOException("Cipher not available", e);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the count of blocks
+     *
+     * @return The count
+     */
+    public long getBlockCount() {
+        return mBlockCount;
+    }
+
+    /**
+     * Get the plaintext bytes of a full block
+     *
+     * @return The block size
+     */
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /**
+     * Check whether the writer closed the file, i.e. the last block has final flag
+     *
+     * @return true is complete, false if the file is still written or was cut
+     */
+    public boolean isComplete() {
+        if (mBlockCount == 0) return false;
+        try {
+            decrypt(mBlockCount - 1, true);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Decrypt a block
+     *
+     * @param blockIndex The block index
+     * @return The plaintext of block
+     * @throws IOException If read fails or the block is tampered
+     */
+    public byte[] readBlock(long blockIndex) throws IOException {
+        if (blockIndex < 0 || blockIndex >= mBlockCount) throw new IndexOutOfBoundsException("Block " + blockIndex);
+        boolean mayBeLast = blockIndex == mBlockCount - 1;
+        try {
+            return decrypt(blockIndex, false);
+        } catch (IOException e) {
+            if (!mayBeLast) throw e;
+            return decrypt(blockIndex, true);
+        }
+    }
+
+    private synchronized byte[] decrypt(long blockIndex, boolean last) throws IOException {
+        long offset = EncryptedLogOutputStream.slotOffset(mBlockSize, blockIndex);
+        ByteBuffer slotHeader = ByteBuffer.allocate(EncryptedLogOutputStream.SLOT_HEADER_SIZE);
+        readFully(slotHeader, offset);
+        byte[] nonce = new byte[EncryptedLogOutputStream.NONCE_SIZE];
+        slotHeader.flip();
+        slotHeader.get(nonce);
+        int length = slotHeader.getInt();
+        if (length < 0 || length > mBlockSize) throw new IOException("Invalid block " + blockIndex);
+        ByteBuffer sealed = ByteBuffer.wrap(mSealed, 0, length + EncryptedLogOutputStream.TAG_SIZE);
+        readFully(sealed, offset + EncryptedLogOutputStream.SLOT_HEADER_SIZE);
+        try {
+            mCipher.init(Cipher.DECRYPT_MODE, mKey, new GCMParameterSpec(EncryptedLogOutputStream.TAG_SIZE * 8, nonce));
+            EncryptedLogOutputStream.aad(mAad, mFileId, blockIndex, length, last);
+            mCipher.updateAAD(mAad);
+            return mCipher.doFinal(mSealed, 0, length + EncryptedLogOutputStream.TAG_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Decrypt block " + blockIndex + " fail", e);
+        }
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (mChannel.read(buf, position + buf.position() - start) < 0) throw new IOException("Unexpected end of file");
+        }
+    }
+
+    /**
+     * Open a stream decrypts all blocks in sequence
+     *
+     * @return The stream, closing it doesn't close the reader
+     */
+    public InputStream openStream() {
+        return new InputStream() {
+            private long mIndex = 0;
+            private byte[] mBlock = new byte[0];
+            private int mPos = 0;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (mPos == mBlock.length) {
+                    if (mIndex >= mBlockCount) return -1;
+                    mBlock = readBlock(mIndex++);
+                    mPos = 0;
+                }
+                int n = Math.min(len, mBlock.length - mPos);
+                System.arraycopy(mBlock, mPos, b, off, n);
+                mPos += n;
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
@@ -0,0 +1,25 @@
+package com.ppcrong.loglib;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Sink writes records to the log file opened by a {@link LogLib}
+ */
+public class FileLogSink implements LogSink {
+
+    private final LogLib mLogLib;
+
+    /**
+     * Ctor
+     *
+     * @param logLib The log lib, its opened log file or log store is written
+     */
+    public FileLogSink(@NonNull LogLib logLib) {
+        mLogLib = logLib;
+    }
+
+    @Override
+    public void write(LogRecord record) {
+        mLogLib.writeLog(record.getPriority(), record.getBytes(), 0, record.getLength());
+    }
+}
@@ -0,0 +1,191 @@
+package com.ppcrong.loglib;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fast text dump of byte payloads, e.g. BLE or serial packets
+ * <p>
+ * Bytes are converted by a lookup table straight into a reused output buffer, so a dump doesn't
+ * allocate once the buffer fits. Each line is optionally prefixed by timestamp
+ * "MM-dd HH:mm:ss.SSS " and tag "TAG: ".
+ * <p>
+ * It's not thread safe, the log writer calls it under its own lock.
+ */
+public class HexDumper {
+
+    /**
+     * Dump style
+     */
+    public enum Style {
+        /**
+         * One line of hex bytes: "0a 1b 2c"
+         */
+        HEX,
+        /**
+         * Lines of 16 bytes like hexdump -C: "00000000  0a 1b ... |..ascii..|"
+         */
+        HEXDUMP
+    }
+
+    private static final int BYTES_PER_LINE = 16;
+    /**
+     * Offset, hex bytes with the group gap, 2 spaces, ascii column in bars and line feed
+     */
+    private static final int HEXDUMP_LINE = 8 + 1 + BYTES_PER_LINE * 3 + 1 + 2 + 1 + BYTES_PER_LINE + 2;
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes();
+    /**
+     * The two hex digits of every byte value
+     */
+    private static final byte[] HEX_TABLE = new byte[256 * 2];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            HEX_TABLE[i * 2] = DIGITS[i >>> 4];
+            HEX_TABLE[i * 2 + 1] = DIGITS[i & 0x0F];
+        }
+    }
+
+    private Style mStyle = Style.HEX;
+    private boolean mTimestamp = true;
+    private final LogTimestamp mTimestampEncoder = new LogTimestamp();
+    private byte[] mBuffer = new byte[1024];
+
+    /**
+     * Set the dump style
+     *
+     * @param style The style
+     */
+    public void setStyle(@NonNull Style style) {
+        mStyle = style;
+    }
+
+    /**
+     * Get the dump style
+     *
+     * @return The style
+     */
+    public Style getStyle() {
+        return mStyle;
+    }
+
+    /**
+     * Enable or disable the timestamp prefix
+     *
+     * @param timestamp true to prefix lines with timestamp
+     */
+    public void setTimestamp(boolean timestamp) {
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * Get the buffer holding the last dump, valid in [0, length returned by dump)
+     *
+     * @return The buffer, it's reused for the next dump
+     */
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Dump bytes
+     *
+     * @param tag  The tag, null for no tag
+     * @param data The data
+     * @param off  The offset
+     * @param len  The length
+     * @return The length of dump in {@link #getBuffer()}
+     */
+    public int dump(String tag, @NonNull byte[] data, int off, int len) {
+        if (off < 0 || len < 0 || off + len > data.length) throw new IndexOutOfBoundsException();
+        return dump(tag, data, null, off, len);
+    }
+
+    /**
+     * Dump the remaining bytes of buffer, its position isn't changed
+     *
+     * @param tag    The tag, null for no tag
+     * @param buffer The buffer
+     * @return The length of dump in {@link #getBuffer()}
+     */
+    public int dump(String tag, @NonNull ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return dump(tag, buffer.array(), null, buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        return dump(tag, null, buffer, buffer.position(), buffer.remaining());
+    }
+
+    /**
+     * Dump from array or, when it's null, from buffer by absolute gets
+     */
+    private int dump(String tag, byte[] array, ByteBuffer buffer, int off, int len) {
+        long now = mTimestamp ? System.currentTimeMillis() : 0;
+        int lines = mStyle == Style.HEX ? 1 : Math.max(1, (len + BYTES_PER_LINE - 1) / BYTES_PER_LINE);
+        int prefix = (mTimestamp ? LogTimestamp.LENGTH + 1 : 0) + (tag == null ? 0 : tag.length() * 3 + 2);
+        int body = mStyle == Style.HEX ? len * 3 + 1 : lines * HEXDUMP_LINE;
+        int max = lines * prefix + body;
+        if (mBuffer.length < max) mBuffer = new byte[Math.max(max, mBuffer.length * 2)];
+        byte[] b = mBuffer;
+        int pos = 0;
+
+        if (mStyle == Style.HEX) {
+            pos = putPrefix(b, pos, now, tag);
+            for (int i = 0; i < len; i++) {
+                int v = (array != null ? array[off + i] : buffer.get(off + i)) & 0xFF;
+                b[pos] = HEX_TABLE[v * 2];
+                b[pos + 1] = HEX_TABLE[v * 2 + 1];
+                b[pos + 2] = ' ';
+                pos += 3;
+            }
+            // Replace the trailing space
+            if (len > 0) pos--;
+            b[pos++] = '\n';
+            return pos;
+        }
+
+        for (int line = 0; line < lines; line++) {
+            pos = putPrefix(b, pos, now, tag);
+            int start = line * BYTES_PER_LINE;
+            int n = Math.min(BYTES_PER_LINE, len - start);
+            for (int shift = 28; shift >= 0; shift -= 4) b[pos++] = DIGITS[(start >>> shift) & 0x0F];
+            b[pos++] = ' ';
+            int ascii = pos + BYTES_PER_LINE * 3 + 1 + 3;
+            for (int i = 0; i < BYTES_PER_LINE; i++) {
+                if (i == BYTES_PER_LINE / 2) b[pos++] = ' ';
+                if (i < n) {
+                    int v = (array != null ? array[off + start + i] : buffer.get(off + start + i)) & 0xFF;
+                    b[pos] = ' ';
+                    b[pos + 1] = HEX_TABLE[v * 2];
+                    b[pos + 2] = HEX_TABLE[v * 2 + 1];
+                    b[ascii + i] = (byte) (v >= 0x20 && v < 0x7F ? v : '.');
+                } else {
+                    b[pos] = ' ';
+                    b[pos + 1] = ' ';
+                    b[pos + 2] = ' ';
+                }
+                pos += 3;
+            }
+            b[pos++] = ' ';
+            b[pos++] = ' ';
+            b[pos++] = '|';
+            pos = ascii + n;
+            b[pos++] = '|';
+            b[pos++] = '\n';
+        }
+        return pos;
+    }
+
+    private int putPrefix(byte[] b, int pos, long now, String tag) {
+        if (mTimestamp) {
+            pos = mTimestampEncoder.encode(now, b, pos);
+            b[pos++] = ' ';
+        }
+        if (tag != null) {
+            pos = LogTimestamp.putUtf8(b, pos, tag);
+            b[pos++] = ':';
+            b[pos++] = ' ';
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,204 @@
+package com.ppcrong.loglib;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * I/O Scheduler
+ * <p>
+ * Runs file operations on a caller-supplied {@link Executor} (dedicated I/O pool, caller thread,
+ * virtual threads on a JVM that has them...). Pending operations are kept in a priority queue,
+ * so when the executor is busy a log flush is picked before bulk reads and deletes.
+ */
+public class IoScheduler {
+
+    /**
+     * Operation priority, the smaller ordinal runs first
+     */
+    public enum Priority {
+        FLUSH,
+        WRITE,
+        OPEN_CLOSE,
+        READ,
+        DELETE
+    }
+
+    /**
+     * Completion callback of an operation
+     *
+     * @param <T> The result type
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called on the executor thread when operation is done
+         *
+         * @param result The result, null if failed
+         * @param error  The error, null if succeeded
+         */
+        void onComplete(T result, Throwable error);
+    }
+
+    /**
+     * The task queued in scheduler, it's also the Future returned to caller
+     *
+     * @param <T> The result type
+     */
+    public static class IoTask<T> extends FutureTask<T> implements Comparable<IoTask<?>> {
+
+        private final Priority mPriority;
+        private final long mSeq;
+        private final Callback<T> mCallback;
+        private final LogDiagnostics mDiagnostics;
+
+        IoTask(Priority priority, long seq, Callable<T> callable, Callback<T> callback, LogDiagnostics diagnostics) {
+            super(callable);
+            mPriority = priority;
+            mSeq = seq;
+            mCallback = callback;
+            mDiagnostics = diagnostics;
+        }
+
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+
+        @Override
+        protected void done() {
+            if (mCallback == null || isCancelled()) return;
+            // Resolve first, so a throwing callback isn't called again as failure
+            T result = null;
+            Throwable error = null;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                error = e.getCause() != null ? e.getCause() : e;
+            } catch (Exception e) {
+                error = e;
+            }
+            try {
+                mCallback.onComplete(result, error);
+            } catch (RuntimeException e) {
+                // Don't let a callback bug escape onto the executor thread
+                mDiagnostics.e(e);
+            }
+        }
+
+        @Override
+        public int compareTo(IoTask<?> o) {
+            int c = mPriority.compareTo(o.mPriority);
+            if (c != 0) return c;
+            // FIFO in the same priority
+            return Long.compare(mSeq, o.mSeq);
+        }
+    }
+
+    /**
+     * Executor runs the task on caller thread
+     */
+    public static final Executor CALLER_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Executor mExecutor;
+    private final LogDiagnostics mDiagnostics;
+    private final PriorityBlockingQueue<IoTask<?>> mQueue = new PriorityBlockingQueue<>();
+    private final AtomicLong mSeq = new AtomicLong();
+    private final Runnable mDrainOne = new Runnable() {
+        @Override
+        public void run() {
+            IoTask<?> task = mQueue.poll();
+            if (task != null) task.run();
+        }
+    };
+
+    /**
+     * Ctor
+     *
+     * @param executor The executor to run operations
+     */
+    public IoScheduler(Executor executor) {
+        this(executor, new AndroidLogDiagnostics());
+    }
+
+    /**
+     * Ctor
+     *
+     * @param executor    The executor to run operations
+     * @param diagnostics The diagnostics to report callback errors
+     */
+    public IoScheduler(Executor executor, @NonNull LogDiagnostics diagnostics) {
+        mExecutor = executor;
+        mDiagnostics = diagnostics;
+    }
+
+    /**
+     * Get the executor
+     *
+     * @return The executor
+     */
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Get the count of operations waiting to run
+     *
+     * @return The count
+     */
+    public int getPendingCount() {
+        return mQueue.size();
+    }
+
+    /**
+     * Submit an operation
+     * <p>
+     * Every submit hands one drain step to the executor, the drain step runs the highest priority
+     * task in queue at that moment, so operations of different priorities may complete out of
+     * submit order.
+     *
+     * @param priority The priority
+     * @param callable The operation
+     * @param callback The completion callback, could be null
+     * @param <T>      The result type
+     * @return The task to wait or cancel
+     */
+    public <T> IoTask<T> submit(Priority priority, Callable<T> callable, Callback<T> callback) {
+        IoTask<T> task = new IoTask<>(priority, mSeq.getAndIncrement(), callable, callback, mDiagnostics);
+        mQueue.add(task);
+        try {
+            mExecutor.execute(mDrainOne);
+        } catch (RuntimeException e) {
+            // Executor rejected, the queue has one task more than drain steps now. Fail this task,
+            // or the head if a drain step of an earlier submit already took this one.
+            IoTask<?> orphan = mQueue.remove(task) ? task : mQueue.poll();
+            if (orphan != null) orphan.fail(e);
+        }
+        return task;
+    }
+
+    /**
+     * Submit an operation
+     *
+     * @param priority The priority
+     * @param callable The operation
+     * @param <T>      The result type
+     * @return The task to wait or cancel
+     */
+    public <T> IoTask<T> submit(Priority priority, Callable<T> callable) {
+        return submit(priority, callable, null);
+    }
+}
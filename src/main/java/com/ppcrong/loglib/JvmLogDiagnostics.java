@@ -0,0 +1,47 @@
+package com.ppcrong.loglib;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pure JVM diagnostics, reported through java.util.logging
+ */
+public class JvmLogDiagnostics implements LogDiagnostics {
+
+    private final Logger mLogger;
+
+    /**
+     * Ctor with the logger named by library package
+     */
+    public JvmLogDiagnostics() {
+        this(Logger.getLogger("com.ppcrong.loglib"));
+    }
+
+    /**
+     * Ctor
+     *
+     * @param logger The logger
+     */
+    public JvmLogDiagnostics(Logger logger) {
+        mLogger = logger;
+    }
+
+    @Override
+    public void i(String msg) {
+        mLogger.log(Level.FINE, msg);
+    }
+
+    @Override
+    public void e(String msg) {
+        mLogger.log(Level.SEVERE, msg);
+    }
+
+    @Override
+    public void e(Throwable t) {
+        StringWriter sw = new StringWriter();
+        t.printStackTrace(new PrintWriter(sw));
+        mLogger.log(Level.SEVERE, sw.toString());
+    }
+}
@@ -0,0 +1,68 @@
+package com.ppcrong.loglib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Pure JVM storage, a plain directory acts as external storage
+ */
+public class JvmLogStorage implements LogStorage {
+
+    private final File mRoot;
+    private volatile boolean mWritable = true;
+    private volatile boolean mReadable = true;
+
+    /**
+     * Ctor
+     *
+     * @param root The directory acts as external storage root
+     */
+    public JvmLogStorage(File root) {
+        mRoot = root;
+    }
+
+    /**
+     * Simulate the storage state
+     *
+     * @param writable true is writable
+     * @param readable true is readable
+     */
+    public void setState(boolean writable, boolean readable) {
+        mWritable = writable;
+        mReadable = readable;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return mWritable;
+    }
+
+    @Override
+    public boolean isReadable() {
+        return mReadable;
+    }
+
+    @Override
+    public File getExternalStorageDirectory() {
+        return mRoot;
+    }
+
+    /**
+     * The JVM has no fallocate, the range is filled with zeros so the blocks are really allocated
+     * and not left sparse
+     */
+    @Override
+    public void allocate(RandomAccessFile file, long offset, long length) throws IOException {
+        FileChannel channel = file.getChannel();
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(length, 64 * 1024));
+        long end = offset + length;
+        for (long pos = offset; pos < end; ) {
+            zeros.clear();
+            if (end - pos < zeros.capacity()) zeros.limit((int) (end - pos));
+            pos += channel.write(zeros, pos);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.ppcrong.loglib;
+
+import android.util.Log;
+
+import com.socks.library.KLog;
+
+/**
+ * Sink prints records to Logcat through KLog, the record isn't encoded for it
+ */
+public class KLogSink implements LogSink {
+
+    @Override
+    public void write(LogRecord record) {
+        String tag = record.getTag();
+        String msg = record.getMessage();
+        switch (record.getPriority()) {
+            case Log.VERBOSE:
+                KLog.v(tag, msg);
+                break;
+            case Log.DEBUG:
+                KLog.d(tag, msg);
+                break;
+            case Log.INFO:
+                KLog.i(tag, msg);
+                break;
+            case Log.WARN:
+                KLog.w(tag, msg);
+                break;
+            case Log.ERROR:
+                KLog.e(tag, msg);
+                break;
+            default:
+                KLog.a(tag, msg);
+                break;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.ppcrong.loglib;
+
+/**
+ * Diagnostics SPI of the log library, where the library reports its own info and errors
+ */
+public interface LogDiagnostics {
+
+    /**
+     * Report info
+     *
+     * @param msg The message
+     */
+    void i(String msg);
+
+    /**
+     * Report error
+     *
+     * @param msg The message
+     */
+    void e(String msg);
+
+    /**
+     * Report error with stack trace
+     *
+     * @param t The error
+     */
+    void e(Throwable t);
+}
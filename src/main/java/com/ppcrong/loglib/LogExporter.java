@@ -0,0 +1,490 @@
+package com.ppcrong.loglib;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Log Exporter
+ * <p>
+ * Streams log files into a single zip or tar archive without staging copies. Tar entries are
+ * copied by {@link FileChannel#transferTo}, it's file to file in kernel when exporting to a
+ * {@link File}, an {@link OutputStream} target gets them through a buffer. Zip entries are
+ * deflated in parallel across files with bounded memory and written in order. The output is deterministic for the same files, so
+ * an interrupted export is resumed by the byte offset already received.
+ */
+public class LogExporter {
+
+    /**
+     * Archive format
+     */
+    public enum Format {
+        ZIP,
+        TAR
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int TAR_BLOCK = 512;
+    private static final byte[] EOF_CHUNK = new byte[0];
+
+    private final Format mFormat;
+    private int mThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private int mQueueChunks = 4;
+    private int mLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Ctor
+     *
+     * @param format The archive format
+     */
+    public LogExporter(Format format) {
+        mFormat = format;
+    }
+
+    /**
+     * Set the count of files deflated in parallel for zip
+     *
+     * @param threads The thread count
+     */
+    public void setThreads(int threads) {
+        mThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Set the compressed chunks (64KB each) buffered per file for zip, it bounds the memory to
+     * threads * chunks * 64KB
+     *
+     * @param chunks The chunk count
+     */
+    public void setQueueChunks(int chunks) {
+        mQueueChunks = Math.max(1, chunks);
+    }
+
+    /**
+     * Set the deflate level for zip
+     *
+     * @param level The level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @throws IllegalArgumentException If level is out of range
+     */
+    public void setLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid level " + level);
+        }
+        mLevel = level;
+    }
+
+    /**
+     * Select files in directory modified in time range, ordered by modified time
+     *
+     * @param dir    The directory
+     * @param fromMs The start of time range, inclusive
+     * @param toMs   The end of time range, exclusive
+     * @return The files
+     */
+    public static List<File> selectFiles(File dir, final long fromMs, final long toMs) {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                long t = f.lastModified();
+                return f.isFile() && !f.getName().endsWith(PreallocatedOutputStream.MARKER_EXT) && t >= fromMs && t < toMs;
+            }
+        });
+        if (files == null) return new ArrayList<>();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                int c = Long.compare(f1.lastModified(), f2.lastModified());
+                return c != 0 ? c : f1.getName().compareTo(f2.getName());
+            }
+        });
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * Export files into archive file, an existing target is resumed from its length
+     *
+     * @param files  The files to export
+     * @param target The archive file
+     * @return The total bytes of archive
+     * @throws IOException If read or write fails
+     */
+    public long export(List<File> files, File target) throws IOException {
+        long offset = target.exists() ? target.length() : 0;
+        FileOutputStream out = new FileOutputStream(target, true);
+        try {
+            return export(files, out, offset, out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Export files into archive stream
+     *
+     * @param files        The files to export, they must not change until resumed
+     * @param out          The output stream, it's not closed
+     * @param resumeOffset The archive bytes already received, they are not written again
+     * @return The total bytes of archive
+     * @throws IOException If read or write fails
+     */
+    public long export(List<File> files, OutputStream out, long resumeOffset) throws IOException {
+        return export(files, out, resumeOffset, null);
+    }
+
+    /**
+     * Export files into archive stream
+     *
+     * @param files        The files to export
+     * @param out          The output stream
+     * @param resumeOffset The archive bytes already received
+     * @param target       The file channel of out for tar to transfer into, null if none
+     * @return The total bytes of archive
+     * @throws IOException If read or write fails
+     */
+    private long export(List<File> files, OutputStream out, long resumeOffset, FileChannel target) throws IOException {
+        List<Entry> entries = new ArrayList<>(files.size());
+        for (File f : files) {
+            entries.add(new Entry(f, mQueueChunks));
+        }
+        SkipOutputStream skip = new SkipOutputStream(out, resumeOffset);
+        if (mFormat == Format.TAR) {
+            writeTar(entries, skip, target);
+        } else {
+            writeZip(entries, skip);
+        }
+        skip.flush();
+        return skip.getCount();
+    }
+
+    /**
+     * File snapshot to export, the length is fixed when export starts
+     */
+    private static class Entry {
+        final File file;
+        final String name;
+        final long length;
+        final long modified;
+        final BlockingQueue<byte[]> chunks;
+        volatile IOException error = null;
+        long crc;
+        long compressedSize;
+        long offset;
+
+        Entry(File f, int queueChunks) {
+            file = f;
+            name = f.getName();
+            length = f.length();
+            modified = f.lastModified();
+            chunks = new ArrayBlockingQueue<>(queueChunks);
+        }
+    }
+
+    // region [Tar]
+    private void writeTar(List<Entry> entries, SkipOutputStream out, FileChannel target) throws IOException {
+        // The skipped bytes are all before the transferred ones, the stream counts the rest
+        WritableByteChannel channel = target != null ? target : Channels.newChannel(out);
+        for (Entry e : entries) {
+            long size = TAR_BLOCK + padded(e.length);
+            // Skip the whole entry already received without reading it
+            if (out.skipping(size)) continue;
+            out.write(tarHeader(e));
+            FileInputStream in = new FileInputStream(e.file);
+            try {
+                FileChannel fc = in.getChannel();
+                long pos = out.remainingSkip();
+                if (pos > e.length) pos = e.length;
+                out.skipped(pos);
+                while (pos < e.length) {
+                    long n = fc.transferTo(pos, e.length - pos, channel);
+                    if (n <= 0) throw new IOException(e.file + " is truncated");
+                    if (target != null) out.transferred(n);
+                    pos += n;
+                }
+            } finally {
+                in.close();
+            }
+            out.write(new byte[(int) (padded(e.length) - e.length)]);
+        }
+        out.write(new byte[TAR_BLOCK * 2]);
+    }
+
+    private static long padded(long length) {
+        return (length + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+    }
+
+    private static byte[] tarHeader(Entry e) throws IOException {
+        byte[] h = new byte[TAR_BLOCK];
+        byte[] name = e.name.getBytes(UTF_8);
+        if (name.length > 100) throw new IOException("Name too long for tar: " + e.name);
+        System.arraycopy(name, 0, h, 0, name.length);
+        octal(h, 100, 8, 0644);
+        octal(h, 108, 8, 0);
+        octal(h, 116, 8, 0);
+        octal(h, 124, 12, e.length);
+        octal(h, 136, 12, e.modified / 1000);
+        Arrays.fill(h, 148, 156, (byte) ' ');
+        h[156] = '0';
+        System.arraycopy("ustar\u000000".getBytes(UTF_8), 0, h, 257, 8);
+        long sum = 0;
+        for (byte b : h) sum += b & 0xFF;
+        octal(h, 148, 7, sum);
+        return h;
+    }
+
+    private static void octal(byte[] h, int off, int len, long value) {
+        String s = Long.toOctalString(value);
+        if (s.length() > len - 1) throw new IllegalArgumentException("Value too large for tar: " + value);
+        int pad = len - 1 - s.length();
+        for (int i = 0; i < pad; i++) h[off + i] = '0';
+        for (int i = 0; i < s.length(); i++) h[off + pad + i] = (byte) s.charAt(i);
+        h[off + len - 1] = 0;
+    }
+    // endregion [Tar]
+
+    // region [Zip]
+    private void writeZip(List<Entry> entries, SkipOutputStream out) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mThreads, Math.max(1, entries.size())));
+        try {
+            // Tasks start in submit order, so the entry being written always has a worker
+            for (final Entry e : entries) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deflate(e);
+                    }
+                });
+            }
+            for (Entry e : entries) {
+                e.offset = out.getCount();
+                byte[] name = e.name.getBytes(UTF_8);
+                out.write(localHeader(e, name));
+                byte[] chunk;
+                while ((chunk = take(e)) != EOF_CHUNK) {
+                    out.write(chunk);
+                }
+                if (e.error != null) throw e.error;
+                out.write(dataDescriptor(e));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long cdStart = out.getCount();
+        for (Entry e : entries) {
+            out.write(centralHeader(e, e.name.getBytes(UTF_8)));
+        }
+        long cdSize = out.getCount() - cdStart;
+        if (cdStart > 0xFFFFFFFFL || entries.size() > 0xFFFF) throw new IOException("Archive too large for zip");
+        LeBuffer b = new LeBuffer(22);
+        b.int32(0x06054b50).int16(0).int16(0).int16(entries.size()).int16(entries.size())
+                .int32(cdSize).int32(cdStart).int16(0);
+        out.write(b.bytes);
+    }
+
+    private static byte[] take(Entry e) throws IOException {
+        try {
+            return e.chunks.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted");
+        }
+    }
+
+    private void deflate(Entry e) {
+        Deflater deflater = null;
+        InputStream is = null;
+        boolean interrupted = false;
+        try {
+            deflater = new Deflater(mLevel, true);
+            CRC32 crc = new CRC32();
+            byte[] in = new byte[CHUNK_SIZE];
+            byte[] buf = new byte[CHUNK_SIZE];
+            is = new FileInputStream(e.file);
+            long remaining = e.length;
+            while (remaining > 0) {
+                int n = is.read(in, 0, (int) Math.min(in.length, remaining));
+                if (n < 0) throw new IOException(e.file + " is truncated");
+                crc.update(in, 0, n);
+                remaining -= n;
+                deflater.setInput(in, 0, n);
+                while (!deflater.needsInput()) {
+                    int len = deflater.deflate(buf);
+                    if (len > 0) e.chunks.put(Arrays.copyOf(buf, len));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buf);
+                if (len > 0) e.chunks.put(Arrays.copyOf(buf, len));
+            }
+            e.crc = crc.getValue();
+            e.compressedSize = deflater.getBytesWritten();
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        } catch (Throwable t) {
+            // Any failure must reach the writer, or it waits for the chunks forever
+            e.error = t instanceof IOException ? (IOException) t : new IOException("Deflate " + e.file + " failed", t);
+        } finally {
+            if (deflater != null) deflater.end();
+            try {
+                if (is != null) is.close();
+            } catch (IOException ex) {
+                // Nothing to do with a read-only file
+            }
+            // Export is aborted when interrupted, nobody takes the chunks
+            if (!interrupted) {
+                try {
+                    e.chunks.put(EOF_CHUNK);
+                } catch (InterruptedException ex) {
+                    // Export is aborted
+                }
+            }
+        }
+    }
+
+    private static byte[] localHeader(Entry e, byte[] name) {
+        LeBuffer b = new LeBuffer(30 + name.length);
+        // Flags: sizes in data descriptor, UTF-8 name
+        b.int32(0x04034b50).int16(20).int16(0x0808).int16(8).int32(dosTime(e.modified))
+                .int32(0).int32(0).int32(0).int16(name.length).int16(0).put(name);
+        return b.bytes;
+    }
+
+    private static byte[] dataDescriptor(Entry e) throws IOException {
+        if (e.length > 0xFFFFFFFFL || e.compressedSize > 0xFFFFFFFFL) throw new IOException("File too large for zip");
+        LeBuffer b = new LeBuffer(16);
+        b.int32(0x08074b50).int32(e.crc).int32(e.compressedSize).int32(e.length);
+        return b.bytes;
+    }
+
+    private static byte[] centralHeader(Entry e, byte[] name) {
+        LeBuffer b = new LeBuffer(46 + name.length);
+        b.int32(0x02014b50).int16(20).int16(20).int16(0x0808).int16(8).int32(dosTime(e.modified))
+                .int32(e.crc).int32(e.compressedSize).int32(e.length).int16(name.length)
+                .int16(0).int16(0).int16(0).int16(0).int32(0).int32(e.offset).put(name);
+        return b.bytes;
+    }
+
+    private static long dosTime(long ms) {
+        // In UTC, the archive doesn't depend on the time zone of the device
+        Calendar c = Calendar.getInstance(UTC);
+        c.setTimeInMillis(ms);
+        int year = Math.max(c.get(Calendar.YEAR), 1980);
+        return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21)
+                | (c.get(Calendar.DAY_OF_MONTH) << 16) | (c.get(Calendar.HOUR_OF_DAY) << 11)
+                | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * Little-endian byte buffer of zip records
+     */
+    private static class LeBuffer {
+        final byte[] bytes;
+        int pos = 0;
+
+        LeBuffer(int size) {
+            bytes = new byte[size];
+        }
+
+        LeBuffer int16(int v) {
+            bytes[pos++] = (byte) v;
+            bytes[pos++] = (byte) (v >>> 8);
+            return this;
+        }
+
+        LeBuffer int32(long v) {
+            int16((int) (v & 0xFFFF));
+            return int16((int) ((v >>> 16) & 0xFFFF));
+        }
+
+        LeBuffer put(byte[] b) {
+            System.arraycopy(b, 0, bytes, pos, b.length);
+            pos += b.length;
+            return this;
+        }
+    }
+    // endregion [Zip]
+
+    /**
+     * Output stream drops the first bytes already received and counts all archive bytes
+     */
+    private static class SkipOutputStream extends FilterOutputStream {
+
+        private long mSkip;
+        private long mCount = 0;
+
+        SkipOutputStream(OutputStream out, long skip) {
+            super(out);
+            mSkip = skip;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long remainingSkip() {
+            return mSkip;
+        }
+
+        /**
+         * Skip the next size bytes without writing if they are all received
+         */
+        boolean skipping(long size) {
+            if (mSkip < size) return false;
+            skipped(size);
+            return true;
+        }
+
+        void skipped(long size) {
+            mSkip -= size;
+            mCount += size;
+        }
+
+        /**
+         * Count the bytes written to the target directly, after all skipped ones
+         */
+        void transferred(long size) {
+            mCount += size;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mCount += len;
+            if (mSkip >= len) {
+                mSkip -= len;
+                return;
+            }
+            off += mSkip;
+            len -= mSkip;
+            mSkip = 0;
+            out.write(b, off, len);
+        }
+    }
+}
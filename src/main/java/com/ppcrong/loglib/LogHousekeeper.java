@@ -0,0 +1,537 @@
+package com.ppcrong.loglib;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Housekeeping of log directories
+ * <p>
+ * Keeps an in-memory catalog of the files in managed directories: size, modified time and type,
+ * indexed by path and by modified time with a running total size. So total bytes is O(1), the
+ * oldest files and the files in a time range are O(log n) plus the result, without listing
+ * directories. The catalog is updated by {@link LogLib} on its own writes and deletes, and by a
+ * periodic {@link #reconcile()} for changes made by others. Retention policy is applied in one
+ * batch: victims are picked from the catalog, then deleted together, a victim protected or changed
+ * after it's picked is kept.
+ * <p>
+ * Every file in managed directories is subject to retention, not only the ones written by
+ * {@link LogLib}. Files to keep there, e.g. exported archives, are excluded by
+ * {@link #setRetentionFilter(FileFilter)}.
+ */
+public class LogHousekeeper {
+
+    /**
+     * Catalog entry, immutable
+     */
+    public static class Entry {
+        private final File mFile;
+        private final long mSize;
+        private final long mLastModified;
+        private final String mType;
+
+        Entry(File file, long size, long lastModified) {
+            mFile = file;
+            mSize = size;
+            mLastModified = lastModified;
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            mType = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.US);
+        }
+
+        /**
+         * Get the file
+         *
+         * @return The file, absolute
+         */
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * Get the size
+         *
+         * @return The size in bytes
+         */
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * Get the modified time
+         *
+         * @return The time in ms
+         */
+        public long getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * Get the type by file extension, e.g. "log", "gz"
+         *
+         * @return The type in lower case, empty if no extension
+         */
+        public String getType() {
+            return mType;
+        }
+    }
+
+    private static final Comparator<Entry> BY_TIME = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int c = Long.compare(e1.mLastModified, e2.mLastModified);
+            return c != 0 ? c : e1.mFile.getPath().compareTo(e2.mFile.getPath());
+        }
+    };
+
+    private final Object mLock = new Object();
+    private final Set<File> mDirs = new HashSet<>();
+    private final Map<File, Entry> mByFile = new HashMap<>();
+    private final TreeSet<Entry> mByTime = new TreeSet<>(BY_TIME);
+    private final Set<File> mProtected = new HashSet<>();
+    private volatile long mTotalBytes = 0;
+    private long mMaxTotalBytes = 0;
+    private long mMaxAgeMs = 0;
+    private int mMaxFiles = 0;
+    private FileFilter mRetentionFilter = null;
+    private ScheduledExecutorService mScheduler = null;
+    private final LogDiagnostics mDiagnostics;
+
+    /**
+     * Ctor
+     */
+    public LogHousekeeper() {
+        this(new AndroidLogDiagnostics());
+    }
+
+    /**
+     * Ctor
+     *
+     * @param diagnostics The diagnostics
+     */
+    public LogHousekeeper(@NonNull LogDiagnostics diagnostics) {
+        mDiagnostics = diagnostics;
+    }
+
+    // region [Catalog]
+
+    /**
+     * Manage a directory, its files are added to catalog now
+     *
+     * @param dir The directory, only its direct files are managed
+     */
+    public void addDir(@NonNull File dir) {
+        synchronized (mLock) {
+            mDirs.add(dir.getAbsoluteFile());
+        }
+        reconcile(dir.getAbsoluteFile());
+    }
+
+    /**
+     * Stop managing a directory, its files are removed from catalog
+     *
+     * @param dir The directory
+     */
+    public void removeDir(@NonNull File dir) {
+        File abs = dir.getAbsoluteFile();
+        synchronized (mLock) {
+            mDirs.remove(abs);
+            removeUnderLocked(abs);
+        }
+    }
+
+    /**
+     * Check whether the file or directory is managed
+     *
+     * @param file The file or directory
+     * @return true is managed, false is not
+     */
+    public boolean isManaged(@NonNull File file) {
+        File abs = file.getAbsoluteFile();
+        synchronized (mLock) {
+            return mDirs.contains(abs) || mDirs.contains(abs.getParentFile());
+        }
+    }
+
+    /**
+     * Update a file by reading its size and modified time
+     *
+     * @param file The file
+     */
+    public void onFileChanged(@NonNull File file) {
+        File abs = file.getAbsoluteFile();
+        if (abs.isFile()) {
+            onFileChanged(abs, abs.length(), abs.lastModified());
+        } else {
+            onFileDeleted(abs);
+        }
+    }
+
+    /**
+     * Update a file by known size and modified time, e.g. from the writer without a stat call
+     *
+     * @param file         The file
+     * @param size         The size in bytes
+     * @param lastModified The modified time in ms
+     */
+    public void onFileChanged(@NonNull File file, long size, long lastModified) {
+        File abs = file.getAbsoluteFile();
+        synchronized (mLock) {
+            if (!mDirs.contains(abs.getParentFile())) return;
+            putLocked(new Entry(abs, size, lastModified));
+        }
+    }
+
+    /**
+     * Remove a deleted file, or all files of a deleted directory
+     *
+     * @param file The file or directory
+     */
+    public void onFileDeleted(@NonNull File file) {
+        File abs = file.getAbsoluteFile();
+        synchronized (mLock) {
+            if (!removeLocked(abs)) removeUnderLocked(abs);
+        }
+    }
+
+    /**
+     * Protect a file from retention and deletion, e.g. the active log file
+     *
+     * @param file The file
+     */
+    public void protect(@NonNull File file) {
+        synchronized (mLock) {
+            mProtected.add(file.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Remove the protection of file
+     *
+     * @param file The file
+     */
+    public void unprotect(@NonNull File file) {
+        synchronized (mLock) {
+            mProtected.remove(file.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Get the total size of managed files
+     *
+     * @return The total bytes
+     */
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * Get the count of managed files
+     *
+     * @return The count
+     */
+    public int getFileCount() {
+        synchronized (mLock) {
+            return mByFile.size();
+        }
+    }
+
+    /**
+     * Get the catalog entry of a file
+     *
+     * @param file The file
+     * @return The entry, null if not in catalog
+     */
+    public Entry getEntry(@NonNull File file) {
+        synchronized (mLock) {
+            return mByFile.get(file.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Get the oldest files
+     *
+     * @param count The max count
+     * @return The entries, oldest first
+     */
+    public List<Entry> getOldest(int count) {
+        List<Entry> list = new ArrayList<>(Math.min(Math.max(count, 0), 64));
+        synchronized (mLock) {
+            for (Entry entry : mByTime) {
+                if (list.size() >= count) break;
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get the files modified in time range
+     *
+     * @param fromMs The start time, inclusive
+     * @param toMs   The end time, exclusive
+     * @return The entries, oldest first
+     */
+    public List<Entry> getFiles(long fromMs, long toMs) {
+        if (fromMs >= toMs) return new ArrayList<>();
+        // Empty path sorts before any file of the same time
+        Entry from = new Entry(new File(""), 0, fromMs);
+        Entry to = new Entry(new File(""), 0, toMs);
+        synchronized (mLock) {
+            return new ArrayList<>(mByTime.subSet(from, true, to, false));
+        }
+    }
+
+    private void putLocked(Entry entry) {
+        Entry old = mByFile.put(entry.mFile, entry);
+        if (old != null) {
+            mByTime.remove(old);
+            mTotalBytes -= old.mSize;
+        }
+        mByTime.add(entry);
+        mTotalBytes += entry.mSize;
+    }
+
+    private boolean removeLocked(File file) {
+        Entry old = mByFile.remove(file);
+        if (old == null) return false;
+        mByTime.remove(old);
+        mTotalBytes -= old.mSize;
+        return true;
+    }
+
+    private void removeUnderLocked(File dir) {
+        Iterator<Entry> it = mByTime.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (!dir.equals(entry.mFile.getParentFile())) continue;
+            it.remove();
+            mByFile.remove(entry.mFile);
+            mTotalBytes -= entry.mSize;
+        }
+    }
+    // endregion [Catalog]
+
+    // region [Reconcile]
+
+    /**
+     * Sync catalog with all managed directories, for the changes not reported to it
+     */
+    public void reconcile() {
+        List<File> dirs;
+        synchronized (mLock) {
+            dirs = new ArrayList<>(mDirs);
+        }
+        for (File dir : dirs) reconcile(dir);
+    }
+
+    private void reconcile(File dir) {
+        // List and stat files without lock
+        File[] files = dir.listFiles();
+        Map<File, Entry> found = new HashMap<>();
+        if (files != null) {
+            for (File file : files) {
+                // A preallocation marker goes with its file, it isn't a log file
+                if (!file.isFile() || file.getName().endsWith(PreallocatedOutputStream.MARKER_EXT)) continue;
+                File abs = file.getAbsoluteFile();
+                found.put(abs, new Entry(abs, abs.length(), abs.lastModified()));
+            }
+        }
+        synchronized (mLock) {
+            if (!mDirs.contains(dir)) return;
+            Iterator<Entry> it = mByTime.iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (!dir.equals(entry.mFile.getParentFile()) || found.containsKey(entry.mFile)) continue;
+                it.remove();
+                mByFile.remove(entry.mFile);
+                mTotalBytes -= entry.mSize;
+            }
+            for (Entry entry : found.values()) {
+                Entry old = mByFile.get(entry.mFile);
+                // The writer reports the logical size of protected (active) files
+                if (old != null && mProtected.contains(entry.mFile)) continue;
+                if (old == null || old.mSize != entry.mSize || old.mLastModified != entry.mLastModified) {
+                    putLocked(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start reconciling and applying retention in background
+     *
+     * @param periodMs The period in ms
+     */
+    public synchronized void start(long periodMs) {
+        if (mScheduler != null) mScheduler.shutdownNow();
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LogHousekeeper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                    applyRetention();
+                } catch (RuntimeException e) {
+                    mDiagnostics.e(e);
+                }
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background work
+     */
+    public synchronized void stop() {
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
+            mScheduler = null;
+        }
+    }
+    // endregion [Reconcile]
+
+    // region [Retention]
+
+    /**
+     * Set retention policy, checked by {@link #applyRetention()}
+     *
+     * @param maxTotalBytes The max total bytes, 0 for no limit
+     * @param maxAgeMs      The max age of files in ms, 0 for no limit
+     * @param maxFiles      The max count of files, 0 for no limit
+     */
+    public void setRetention(long maxTotalBytes, long maxAgeMs, int maxFiles) {
+        synchronized (mLock) {
+            mMaxTotalBytes = maxTotalBytes;
+            mMaxAgeMs = maxAgeMs;
+            mMaxFiles = maxFiles;
+        }
+    }
+
+    /**
+     * Set the filter of files subject to retention, the others are never deleted by
+     * {@link #applyRetention()} and don't count to its limits
+     *
+     * @param filter The filter, null for all files in managed directories
+     */
+    public void setRetentionFilter(FileFilter filter) {
+        synchronized (mLock) {
+            mRetentionFilter = filter;
+        }
+    }
+
+    /**
+     * Delete the oldest files breaking retention policy in one batch
+     *
+     * @return The count of deleted files
+     */
+    public int applyRetention() {
+        List<Entry> victims = new ArrayList<>();
+        synchronized (mLock) {
+            if (mMaxTotalBytes <= 0 && mMaxAgeMs <= 0 && mMaxFiles <= 0) return 0;
+            long minTime = mMaxAgeMs > 0 ? System.currentTimeMillis() - mMaxAgeMs : Long.MIN_VALUE;
+            long total = mTotalBytes;
+            int count = mByFile.size();
+            List<Entry> candidates = new ArrayList<>(mByTime);
+            if (mRetentionFilter != null) {
+                Iterator<Entry> it = candidates.iterator();
+                while (it.hasNext()) {
+                    Entry entry = it.next();
+                    if (mRetentionFilter.accept(entry.mFile)) continue;
+                    it.remove();
+                    total -= entry.mSize;
+                    count--;
+                }
+            }
+            for (Entry entry : candidates) {
+                boolean overBytes = mMaxTotalBytes > 0 && total > mMaxTotalBytes;
+                boolean overCount = mMaxFiles > 0 && count > mMaxFiles;
+                if (!overBytes && !overCount && entry.mLastModified >= minTime) break;
+                if (mProtected.contains(entry.mFile)) continue;
+                victims.add(entry);
+                total -= entry.mSize;
+                count--;
+            }
+        }
+        return delete(victims);
+    }
+
+    /**
+     * Delete the oldest files of directory until its usable space is expected to reach target,
+     * by the catalog sizes instead of checking space after each delete
+     *
+     * @param dir         The managed directory
+     * @param usableBytes The target usable bytes
+     * @return The count of deleted files
+     */
+    public int deleteOldest(@NonNull File dir, long usableBytes) {
+        return deleteOldest(dir, usableBytes - dir.getAbsoluteFile().getUsableSpace(), null);
+    }
+
+    /**
+     * Delete the oldest files of directory accepted by filter until their catalog sizes reach
+     * the bytes to free
+     *
+     * @param dir    The managed directory
+     * @param bytes  The bytes to free
+     * @param filter The filter of files could be deleted, null for all
+     * @return The count of deleted files
+     */
+    public int deleteOldest(@NonNull File dir, long bytes, FileFilter filter) {
+        File abs = dir.getAbsoluteFile();
+        long needed = bytes;
+        if (needed <= 0) return 0;
+        List<Entry> victims = new ArrayList<>();
+        synchronized (mLock) {
+            for (Entry entry : mByTime) {
+                if (needed <= 0) break;
+                if (!abs.equals(entry.mFile.getParentFile()) || mProtected.contains(entry.mFile)) continue;
+                if (filter != null && !filter.accept(entry.mFile)) continue;
+                victims.add(entry);
+                needed -= entry.mSize;
+            }
+        }
+        return delete(victims);
+    }
+
+    private int delete(List<Entry> victims) {
+        if (victims.isEmpty()) return 0;
+        int deleted = 0;
+        for (Entry entry : victims) {
+            // Checked again per file, it could be protected (e.g. reopened) or changed since picked
+            synchronized (mLock) {
+                if (mProtected.contains(entry.mFile) || mByFile.get(entry.mFile) != entry) continue;
+                if (entry.mFile.delete() || !entry.mFile.exists()) {
+                    removeLocked(entry.mFile);
+                    deleted++;
+                    continue;
+                }
+            }
+            mDiagnostics.i("Delete " + entry.mFile.getPath() + " fail");
+        }
+        mDiagnostics.i("Housekeeping deleted " + deleted + " files, total: " + mTotalBytes);
+        return deleted;
+    }
+    // endregion [Retention]
+}
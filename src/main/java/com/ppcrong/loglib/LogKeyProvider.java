@@ -0,0 +1,23 @@
+package com.ppcrong.loglib;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Provider of the AES key to encrypt and decrypt log files
+ * <p>
+ * The key could be backed by Android Keystore, it must allow {@code GCM/NoPadding} and be built
+ * with {@code KeyGenParameterSpec.Builder.setRandomizedEncryptionRequired(false)}, since
+ * {@link EncryptedLogOutputStream} supplies its own nonce per block.
+ */
+public interface LogKeyProvider {
+
+    /**
+     * Get the AES key
+     *
+     * @return The key
+     * @throws GeneralSecurityException If the key isn't available
+     */
+    SecretKey getKey() throws GeneralSecurityException;
+}
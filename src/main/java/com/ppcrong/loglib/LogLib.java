@@ -1,22 +1,33 @@
 package com.ppcrong.loglib;
 
 import android.content.Context;
-import android.os.Environment;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import com.socks.library.KLog;
-
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Log Library
@@ -27,11 +38,27 @@ public class LogLib {
 
     // region [Common]
 
+    private LogStorage mStorage;
+    private final LogDiagnostics mDiagnostics;
+
     /**
      * Ctor
      */
     public LogLib() {
+        this(new AndroidLogStorage(), new AndroidLogDiagnostics());
+    }
 
+    /**
+     * Ctor with platform implementations, e.g. {@link JvmLogStorage} and {@link JvmLogDiagnostics}
+     * to run without Android
+     *
+     * @param storage     The storage
+     * @param diagnostics The diagnostics
+     */
+    public LogLib(@NonNull LogStorage storage, @NonNull LogDiagnostics diagnostics) {
+        mStorage = storage;
+        mDiagnostics = diagnostics;
+        mIoScheduler = new IoScheduler(IoScheduler.CALLER_THREAD, diagnostics);
     }
 
     /**
@@ -55,7 +82,7 @@ public class LogLib {
         } else {
             fileName += "_" + postfix + "." + ext;
         }
-        KLog.i("fileName: " + fileName);
+        mDiagnostics.i("fileName: " + fileName);
         return fileName;
     }
 
@@ -80,7 +107,7 @@ public class LogLib {
         } else {
             fileName += "_" + postfix + "." + ext;
         }
-        KLog.i("fileName: " + fileName);
+        mDiagnostics.i("fileName: " + fileName);
         return fileName;
     }
 
@@ -93,12 +120,12 @@ public class LogLib {
      */
     @Deprecated
     public File getExDir(String subDir) {
-        KLog.i("subDir: " + subDir);
+        mDiagnostics.i("subDir: " + subDir);
         // Get the subFolder of external storage.
-        File file = new File(Environment.getExternalStorageDirectory(), subDir);
+        File file = new File(mStorage.getExternalStorageDirectory(), subDir);
         if (!file.exists()) {
             if (!file.mkdirs()) {
-                KLog.e("subDir not created");
+                mDiagnostics.e("subDir not created");
             }
         }
         return file;
@@ -111,28 +138,42 @@ public class LogLib {
      * @return The directory
      */
     public File getExDir(Context ctx, String subDir) {
-        KLog.i("subDir: " + subDir);
+        mDiagnostics.i("subDir: " + subDir);
         // Get the subFolder of external storage.
         File file = new File(ctx.getExternalFilesDir(null), subDir);
         if (!file.exists()) {
             if (!file.mkdirs()) {
-                KLog.e("subDir not created");
+                mDiagnostics.e("subDir not created");
             }
         }
         return file;
     }
 
+    /**
+     * Set the cache of external storage state, e.g. one registered to media broadcasts, it's
+     * applied to the {@link AndroidLogStorage} in use
+     *
+     * @param cache The storage state cache
+     * @throws IllegalStateException If a storage other than AndroidLogStorage is in use
+     */
+    public void setStorageStateCache(@NonNull StorageStateCache cache) {
+        if (!(mStorage instanceof AndroidLogStorage)) {
+            throw new IllegalStateException("Storage state cache needs AndroidLogStorage, not " +
+                    mStorage.getClass().getSimpleName());
+        }
+        ((AndroidLogStorage) mStorage).setStorageStateCache(cache);
+    }
+
     /**
      * Checks if external storage is available for read and write
      *
      * @return true is writable, false is not
      */
     public boolean isExternalStorageWritable() {
-        String state = Environment.getExternalStorageState();
-        if (Environment.MEDIA_MOUNTED.equals(state)) {
+        if (mStorage.isWritable()) {
             return true;
         }
-        KLog.i("External Storage isn't writable");
+        mDiagnostics.i("External Storage isn't writable");
         return false;
     }
 
@@ -142,12 +183,10 @@ public class LogLib {
      * @return true is readable, false is not
      */
     public boolean isExternalStorageReadable() {
-        String state = Environment.getExternalStorageState();
-        if (Environment.MEDIA_MOUNTED.equals(state) ||
-                Environment.MEDIA_MOUNTED_READ_ONLY.equals(state)) {
+        if (mStorage.isReadable()) {
             return true;
         }
-        KLog.i("External Storage isn't readable");
+        mDiagnostics.i("External Storage isn't readable");
         return false;
     }
 
@@ -156,7 +195,7 @@ public class LogLib {
      * @param dir The directory to be deleted.
      */
     public void deleteAllFiles(@NonNull String dir) {
-        KLog.i("Directory = " + dir);
+        mDiagnostics.i("Directory = " + dir);
         File fileDir = new File(dir);
         deleteRecursive(fileDir);
     }
@@ -173,15 +212,17 @@ public class LogLib {
                 deleteRecursive(child);
 
         boolean b = fileOrDirectory.delete();
-        KLog.i("Delete " + fileOrDirectory.getPath() + " " + (b ? "ok" : "fail"));
+        mDiagnostics.i("Delete " + fileOrDirectory.getPath() + " " + (b ? "ok" : "fail"));
+        LogHousekeeper housekeeper = mHousekeeper;
+        if (b && housekeeper != null) housekeeper.onFileDeleted(fileOrDirectory);
     }
     // endregion [Common]
 
     // region [Logging]
     private Object mLock = new Object();
     private File fileLog = null;
-    private FileOutputStream mFileOutputStream = null;
-    private OutputStreamWriter mOutputStreamWriter = null;
+    private volatile LogTail mLogTail = null;
+    private int mTailBufferSize = 64 * 1024;
 
     /**
      * Open/Create log file
@@ -191,36 +232,153 @@ public class LogLib {
      * @return true is open ok, false is open fail
      */
     public boolean openLogFile(File fileDir, String fileName) {
-        KLog.i("fileLog: " + fileDir.getPath() + File.separator + fileName);
+        return openLogFile(fileDir, fileName, 0);
+    }
+
+    /**
+     * Open/Create log file with preallocated size
+     * <p>
+     * The file is reserved with preallocateBytes up front (and extended by the same step when
+     * full) to avoid the file system growing it on every write, it's trimmed to the real size
+     * when closed. The files left padded by a crash in fileDir are trimmed by
+     * {@link #recoverLogFiles(File)} first.
+     *
+     * @param fileDir          The dir of file
+     * @param fileName         The log file name
+     * @param preallocateBytes The bytes to reserve, 0 to disable preallocation
+     * @return true is open ok, false is open fail
+     */
+    public boolean openLogFile(File fileDir, String fileName, long preallocateBytes) {
+        return openLogFile(fileDir, fileName, preallocateBytes, null);
+    }
+
+    /**
+     * Open/Create log file encrypted by AES-GCM blocks, read it by {@link EncryptedLogReader}
+     * <p>
+     * The data is sealed into the file by {@link EncryptedLogOutputStream#DEFAULT_BLOCK_SIZE} bytes
+     * blocks and on flush. Tail readers of it can only read the data still in memory.
+     *
+     * @param fileDir     The dir of file
+     * @param fileName    The log file name
+     * @param keyProvider The provider of AES key
+     * @return true is open ok, false is open fail
+     */
+    public boolean openEncryptedLogFile(File fileDir, String fileName, @NonNull LogKeyProvider keyProvider) {
+        return openLogFile(fileDir, fileName, 0, keyProvider);
+    }
+
+    private boolean openLogFile(File fileDir, String fileName, long preallocateBytes, LogKeyProvider keyProvider) {
+        mDiagnostics.i("fileLog: " + fileDir.getPath() + File.separator + fileName + ", preallocate: " + preallocateBytes +
+                ", encrypted: " + (keyProvider != null));
 
         boolean bRet = false;
         if (isExternalStorageWritable()) {
+            // Files of a crashed preallocated session are still padded
+            if (preallocateBytes > 0) recoverLogFiles(fileDir);
             synchronized (mLock) {
                 // Create file
                 fileLog = new File(fileDir, fileName);
                 try {
                     if (fileLog.exists()) {
                         boolean b = fileLog.delete();
-                        KLog.i("Delete " + (b ? "ok" : "fail"));
+                        mDiagnostics.i("Delete " + (b ? "ok" : "fail"));
                     }
                     boolean b = fileLog.createNewFile();
-                    KLog.i("Create " + (b ? "ok" : "fail"));
-                    mFileOutputStream = new FileOutputStream(fileLog);
-                    mOutputStreamWriter = new OutputStreamWriter(mFileOutputStream);
+                    mDiagnostics.i("Create " + (b ? "ok" : "fail"));
+                    OutputStream out;
+                    if (keyProvider != null) {
+                        out = new EncryptedLogOutputStream(fileLog, keyProvider, EncryptedLogOutputStream.DEFAULT_BLOCK_SIZE);
+                    } else if (preallocateBytes > 0) {
+                        out = new PreallocatedOutputStream(fileLog, preallocateBytes, mStorage);
+                    } else {
+                        out = new FileOutputStream(fileLog);
+                    }
+                    mLogTail = new LogTail(out, keyProvider == null ? fileLog : null, mTailBufferSize);
+                    mCreatedFiles.add(fileLog.getAbsoluteFile());
+                    if (mAdaptiveFlusher != null) mAdaptiveFlusher.reset();
+                    LogHousekeeper housekeeper = mHousekeeper;
+                    if (housekeeper != null) {
+                        housekeeper.protect(fileLog);
+                        housekeeper.onFileChanged(fileLog, 0, System.currentTimeMillis());
+                    }
                     bRet = true;
                 } catch (FileNotFoundException e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 } catch (IOException e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 } catch (Exception e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 }
             }
+            // The memory log left when storage recovered while nothing was open
+            if (bRet) drainMemoryLog();
         }
 
         return bRet;
     }
 
+    /**
+     * Trim the log files left preallocated by a crash to the logical end recorded for them, it's
+     * done when a log file is opened with preallocation, call it to recover a dir before reading
+     * or exporting the files. The files still written by any process are left alone.
+     *
+     * @param dir The dir of log files
+     * @return The count of recovered files
+     */
+    public int recoverLogFiles(File dir) {
+        int count = 0;
+        for (File file : PreallocatedOutputStream.listPreallocatedFiles(dir)) {
+            try {
+                if (!PreallocatedOutputStream.trimPadding(file)) continue;
+            } catch (IOException e) {
+                mDiagnostics.e(e);
+                continue;
+            }
+            mDiagnostics.i("Recovered: " + file.getPath());
+            LogHousekeeper housekeeper = mHousekeeper;
+            if (housekeeper != null) housekeeper.onFileChanged(file);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Set the size of in-memory buffer kept for tail readers, it's applied to the next opened log file
+     *
+     * @param size The buffer size in bytes
+     */
+    public void setTailBufferSize(int size) {
+        mTailBufferSize = size;
+    }
+
+    /**
+     * Get the tail of the opened log file, to read the flushed data while it's being written
+     *
+     * @return The tail, null if no log file opened
+     */
+    public LogTail getLogTail() {
+        return mLogTail;
+    }
+
+    /**
+     * Read the opened log file from position up to the last written record, including the data
+     * not flushed yet. It uses positional reads and doesn't take the log lock, so it's cheap to
+     * call from a live log screen while logging goes on.
+     *
+     * @param position The position to read from, e.g. the length of the last snapshot
+     * @return The data, null if no log file opened, it's encrypted or read fails
+     */
+    public byte[] readLogSnapshot(long position) {
+        LogTail tail = mLogTail;
+        if (tail == null || tail.getFile() == null) return null;
+        try {
+            return tail.readSnapshot(position);
+        } catch (IOException e) {
+            mDiagnostics.e(e);
+            return null;
+        }
+    }
+
     /**
      * Write data to log file
      *
@@ -228,51 +386,178 @@ public class LogLib {
      */
     public void writeLog(String data) {
         synchronized (mLock) {
+            if (isMemoryOnly()) {
+                byte[] bytes = data.getBytes();
+                appendMemoryLog(bytes, 0, bytes.length);
+                return;
+            }
             try {
-                if (mOutputStreamWriter != null) mOutputStreamWriter.write(data);
+                writeLocked(data);
+                onWriteOk();
+                afterWriteLocked(data.length());
             } catch (IOException e) {
-                KLog.e(Log.getStackTraceString(e));
+                onWriteError(e);
             }
         }
     }
 
+    /**
+     * Write data with priority to log file, the low priority data is dropped when storage is low
+     *
+     * @param priority The priority, e.g. {@link Log#DEBUG}
+     * @param data     The data to write
+     */
+    public void writeLog(int priority, String data) {
+        if (isLowPriorityDropped(priority)) return;
+        writeLog(data);
+    }
+
     /**
      * Write byte array to log file
      *
      * @param bytes The data to write
      */
     public void writeLog(byte[] bytes) {
+        writeLog(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Write part of byte array to log file
+     *
+     * @param bytes The data to write
+     * @param off   The offset
+     * @param len   The length
+     */
+    public void writeLog(byte[] bytes, int off, int len) {
+        synchronized (mLock) {
+            writeBytesLocked(bytes, off, len);
+        }
+    }
+
+    /**
+     * Write bytes to the opened log store or log file, or keep them in memory log when storage is
+     * full, must hold mLock
+     */
+    private void writeBytesLocked(byte[] bytes, int off, int len) {
+        if (isMemoryOnly()) {
+            appendMemoryLog(bytes, off, len);
+            return;
+        }
+        try {
+            writeRawLocked(bytes, off, len);
+            onWriteOk();
+            afterWriteLocked(len);
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    /**
+     * Write part of byte array with priority to log file, the low priority data is dropped when
+     * storage is low
+     *
+     * @param priority The priority, e.g. {@link Log#DEBUG}
+     * @param bytes    The data to write
+     * @param off      The offset
+     * @param len      The length
+     */
+    public void writeLog(int priority, byte[] bytes, int off, int len) {
+        if (isLowPriorityDropped(priority)) return;
+        writeLog(bytes, off, len);
+    }
+
+    /**
+     * Write data to the opened log store or log file, must hold mLock
+     */
+    private void writeLocked(String data) throws IOException {
+        if (mLogStore != null) {
+            byte[] bytes = data.getBytes();
+            appendStoreLocked(bytes, 0, bytes.length);
+        } else if (mLogTail != null) {
+            mLogTail.writeText(data);
+        }
+    }
+
+    /**
+     * Write bytes to the opened log store or log file, must hold mLock
+     */
+    private void writeRawLocked(byte[] bytes, int off, int len) throws IOException {
+        if (mLogStore != null) {
+            appendStoreLocked(bytes, off, len);
+        } else if (mLogTail != null) {
+            // Through the tail buffer to keep order with text
+            mLogTail.write(bytes, off, len);
+        }
+    }
+
+    /**
+     * Append data to the opened log store, must hold mLock
+     * <p>
+     * Data longer than a record can hold is split into records in order, so the replay still
+     * reads it back whole.
+     */
+    private void appendStoreLocked(byte[] bytes, int off, int len) throws IOException {
+        int max = mLogStore.getMaxRecordSize();
+        if (len > max) {
+            mDiagnostics.i("Record of " + len + " bytes is split by max " + max);
+        }
+        while (len > 0) {
+            int n = Math.min(len, max);
+            mLogStore.append(bytes, off, n);
+            off += n;
+            len -= n;
+        }
+        trackStoreSegmentLocked();
+    }
+
+    /**
+     * Flush log file
+     */
+    public void flushLogFile() {
         synchronized (mLock) {
             try {
-                if (mFileOutputStream != null) mFileOutputStream.write(bytes);
+                flushLocked();
             } catch (IOException e) {
-                KLog.e(Log.getStackTraceString(e));
+                mDiagnostics.e(e);
             }
         }
     }
 
+    /**
+     * Flush log file, must hold mLock
+     */
+    private void flushLocked() throws IOException {
+        if (mLogTail == null) return;
+        long start = System.nanoTime();
+        mLogTail.flush();
+        LogHousekeeper housekeeper = mHousekeeper;
+        if (housekeeper != null) housekeeper.onFileChanged(fileLog, mLogTail.getEnd(), System.currentTimeMillis());
+        if (mAdaptiveFlusher != null) mAdaptiveFlusher.onFlush(System.nanoTime() - start);
+    }
+
     /**
      * Close log file
      */
     public void closeLogFile() {
         if (fileLog == null) {
-            KLog.i("fileLog is null ");
+            mDiagnostics.i("fileLog is null ");
             return;
         }
-        KLog.i("fileLog: " + fileLog.getPath());
+        mDiagnostics.i("fileLog: " + fileLog.getPath());
         synchronized (mLock) {
-            if (mOutputStreamWriter != null) {
+            if (mLogTail != null) {
                 try {
-                    mOutputStreamWriter.flush();
+                    mLogTail.flush();
                 } catch (IOException e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 } finally {
                     try {
-                        mOutputStreamWriter.close();
+                        mLogTail.close();
                     } catch (IOException e) {
-                        KLog.e(Log.getStackTraceString(e));
+                        mDiagnostics.e(e);
                     } finally {
-                        mOutputStreamWriter = null;
+                        mLogTail = null;
+                        onLogFileClosed(fileLog);
                         fileLog = null;
                     }
                 }
@@ -287,24 +572,25 @@ public class LogLib {
      */
     public String closeLogFileReturnPath() {
         if (fileLog == null) {
-            KLog.i("fileLog is null ");
+            mDiagnostics.i("fileLog is null ");
             return "";
         }
         String path = fileLog.getPath();
-        KLog.i("fileLog: " + path);
+        mDiagnostics.i("fileLog: " + path);
         synchronized (mLock) {
-            if (mOutputStreamWriter != null) {
+            if (mLogTail != null) {
                 try {
-                    mOutputStreamWriter.flush();
+                    mLogTail.flush();
                 } catch (IOException e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 } finally {
                     try {
-                        mOutputStreamWriter.close();
+                        mLogTail.close();
                     } catch (IOException e) {
-                        KLog.e(Log.getStackTraceString(e));
+                        mDiagnostics.e(e);
                     } finally {
-                        mOutputStreamWriter = null;
+                        mLogTail = null;
+                        onLogFileClosed(fileLog);
                         fileLog = null;
                     }
                 }
@@ -314,6 +600,530 @@ public class LogLib {
     }
     // endregion [Logging]
 
+    // region [Hex Dump]
+    private final HexDumper mHexDumper = new HexDumper();
+
+    /**
+     * Set the format of hex dump
+     *
+     * @param style     The style
+     * @param timestamp true to prefix lines with timestamp
+     */
+    public void setHexDumpFormat(@NonNull HexDumper.Style style, boolean timestamp) {
+        synchronized (mLock) {
+            mHexDumper.setStyle(style);
+            mHexDumper.setTimestamp(timestamp);
+        }
+    }
+
+    /**
+     * Write byte array as readable hex text to log file, instead of the raw bytes of
+     * {@link #writeLog(byte[])}
+     *
+     * @param tag   The tag, null for no tag
+     * @param bytes The data to dump
+     * @param off   The offset
+     * @param len   The length
+     */
+    public void writeHexDump(String tag, @NonNull byte[] bytes, int off, int len) {
+        synchronized (mLock) {
+            writeHexDumpLocked(mHexDumper.dump(tag, bytes, off, len));
+        }
+    }
+
+    /**
+     * Write the remaining bytes of buffer as readable hex text to log file, its position isn't changed
+     *
+     * @param tag    The tag, null for no tag
+     * @param buffer The data to dump
+     */
+    public void writeHexDump(String tag, @NonNull ByteBuffer buffer) {
+        synchronized (mLock) {
+            writeHexDumpLocked(mHexDumper.dump(tag, buffer));
+        }
+    }
+
+    private void writeHexDumpLocked(int len) {
+        writeBytesLocked(mHexDumper.getBuffer(), 0, len);
+    }
+    // endregion [Hex Dump]
+
+    // region [Log Store]
+    private SegmentedLogStore mLogStore = null;
+    private volatile File mStoreSegment = null;
+
+    /**
+     * Open segmented log store, while it's opened every writeLog call is one checksummed record
+     * in store instead of the log file
+     *
+     * @param storeDir     The dir of segments
+     * @param segmentBytes The max bytes of a segment
+     * @return true is open ok, false is open fail
+     */
+    public boolean openLogStore(File storeDir, long segmentBytes) {
+        mDiagnostics.i("storeDir: " + storeDir.getPath() + ", segmentBytes: " + segmentBytes);
+
+        boolean bRet = false;
+        if (isExternalStorageWritable()) {
+            synchronized (mLock) {
+                try {
+                    if (mLogStore != null) mLogStore.close();
+                    mLogStore = new SegmentedLogStore(storeDir, segmentBytes);
+                    trackStoreSegmentLocked();
+                    bRet = true;
+                } catch (IOException e) {
+                    mDiagnostics.e(e);
+                    mLogStore = null;
+                }
+            }
+            if (bRet) drainMemoryLog();
+        }
+
+        return bRet;
+    }
+
+    /**
+     * Get the opened segmented log store, e.g. to replay records by {@link SegmentedLogStore#iterator()}
+     *
+     * @return The store, null if not opened
+     */
+    public SegmentedLogStore getLogStore() {
+        return mLogStore;
+    }
+
+    /**
+     * Close segmented log store
+     */
+    public void closeLogStore() {
+        synchronized (mLock) {
+            if (mLogStore == null) {
+                mDiagnostics.i("mLogStore is null ");
+                return;
+            }
+            try {
+                mLogStore.close();
+            } catch (IOException e) {
+                mDiagnostics.e(e);
+            } finally {
+                mLogStore = null;
+                onLogFileClosed(mStoreSegment);
+                mStoreSegment = null;
+            }
+        }
+    }
+
+    /**
+     * Track the segment being appended, it's a log file created by this instance and protected
+     * from housekeeper until the store rolls to next segment, must hold mLock
+     */
+    private void trackStoreSegmentLocked() {
+        File segment = mLogStore.getSegmentFile();
+        if (segment == mStoreSegment) return;
+        onLogFileClosed(mStoreSegment);
+        mStoreSegment = segment;
+        mCreatedFiles.add(segment.getAbsoluteFile());
+        LogHousekeeper housekeeper = mHousekeeper;
+        if (housekeeper != null) {
+            housekeeper.protect(segment);
+            housekeeper.onFileChanged(segment);
+        }
+    }
+    // endregion [Log Store]
+
+    // region [Adaptive Flush]
+    private final LogMetrics mMetrics = new LogMetrics();
+    private AdaptiveFlusher mAdaptiveFlusher = null;
+    private ScheduledExecutorService mFlushScheduler = null;
+    private boolean mFlushScheduled = false;
+    private final Runnable mDeferredFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                mFlushScheduled = false;
+                if (mAdaptiveFlusher == null) return;
+                long delay = mAdaptiveFlusher.getFlushDelayNanos(System.nanoTime());
+                if (delay < 0) return;
+                if (delay > 0) {
+                    scheduleFlushLocked(delay);
+                    return;
+                }
+                try {
+                    flushLocked();
+                } catch (IOException e) {
+                    onWriteError(e);
+                }
+            }
+        }
+    };
+
+    /**
+     * Get the metrics of log pipeline
+     *
+     * @return The metrics
+     */
+    public LogMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Enable adaptive flush of log file: flush almost immediately when traffic is sparse, batch
+     * writes under bursts within the bounds. Its decision is published to {@link #getMetrics()}.
+     *
+     * @param maxLatencyMs  The max time a write stays unflushed
+     * @param maxBatchBytes The max bytes batched before flush
+     */
+    public void enableAdaptiveFlush(long maxLatencyMs, int maxBatchBytes) {
+        synchronized (mLock) {
+            mAdaptiveFlusher = new AdaptiveFlusher(maxLatencyMs, maxBatchBytes, mMetrics);
+            if (mFlushScheduler == null) {
+                mFlushScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "LogLibFlusher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Disable adaptive flush, the log file is only flushed by {@link #flushLogFile()} and close
+     */
+    public void disableAdaptiveFlush() {
+        synchronized (mLock) {
+            mAdaptiveFlusher = null;
+            mFlushScheduled = false;
+            if (mFlushScheduler != null) {
+                mFlushScheduler.shutdownNow();
+                mFlushScheduler = null;
+            }
+        }
+    }
+
+    /**
+     * Let adaptive flusher decide after a write, must hold mLock
+     */
+    private void afterWriteLocked(int bytes) throws IOException {
+        if (mAdaptiveFlusher == null || mLogStore != null || mLogTail == null) return;
+        long now = System.nanoTime();
+        if (mAdaptiveFlusher.onWrite(bytes, now)) {
+            flushLocked();
+        } else if (!mFlushScheduled) {
+            scheduleFlushLocked(mAdaptiveFlusher.getFlushDelayNanos(now));
+        }
+    }
+
+    private void scheduleFlushLocked(long delayNanos) {
+        mFlushScheduled = true;
+        mFlushScheduler.schedule(mDeferredFlush, delayNanos, TimeUnit.NANOSECONDS);
+    }
+    // endregion [Adaptive Flush]
+
+    // region [Storage Watchdog]
+    private volatile StorageWatchdog mStorageWatchdog = null;
+    private int mLowSpaceMinPriority = Log.INFO;
+    private int mWriteErrorCount = 0;
+    private final ArrayDeque<byte[]> mMemoryLog = new ArrayDeque<>();
+    private int mMemoryLogBytes = 0;
+    private int mMemoryLogLimit = 256 * 1024;
+    /**
+     * The log files created by this instance, only they're compressed or deleted when storage is low
+     */
+    private final Set<File> mCreatedFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private final FileFilter mClosedLogFileFilter = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return mCreatedFiles.contains(file.getAbsoluteFile()) && !isActiveLogFile(file) && file.isFile();
+        }
+    };
+    private final StorageWatchdog.Listener mWatchdogListener = new StorageWatchdog.Listener() {
+        @Override
+        public void onStateChanged(StorageWatchdog.State oldState, StorageWatchdog.State newState, long usableBytes) {
+            mDiagnostics.i("Storage " + oldState + " -> " + newState + ", usable: " + usableBytes);
+            StorageWatchdog watchdog = mStorageWatchdog;
+            if (watchdog == null) return;
+            if (newState.compareTo(StorageWatchdog.State.COMPRESS) >= 0 &&
+                    oldState.compareTo(StorageWatchdog.State.COMPRESS) < 0) {
+                compressLogFiles(watchdog.getDir());
+            }
+            if (newState.compareTo(StorageWatchdog.State.DELETE_OLDEST) >= 0) {
+                deleteOldestLogFiles(watchdog.getDir(), watchdog.getThreshold(StorageWatchdog.State.DELETE_OLDEST));
+            }
+            if (oldState == StorageWatchdog.State.MEMORY_ONLY) {
+                drainMemoryLog();
+            }
+        }
+    };
+
+    /**
+     * Set the storage watchdog, the log pipeline degrades by its state:
+     * compress closed log files, drop low priority data, delete the oldest log files and
+     * finally keep data in memory only. The app could add its own listener to the watchdog.
+     *
+     * @param watchdog The watchdog, null to disable
+     */
+    public void setStorageWatchdog(StorageWatchdog watchdog) {
+        if (mStorageWatchdog != null) mStorageWatchdog.removeListener(mWatchdogListener);
+        mStorageWatchdog = watchdog;
+        if (watchdog != null) watchdog.addListener(mWatchdogListener);
+    }
+
+    /**
+     * Get the storage watchdog
+     *
+     * @return The watchdog, null if not set
+     */
+    public StorageWatchdog getStorageWatchdog() {
+        return mStorageWatchdog;
+    }
+
+    /**
+     * Set the min priority still written when storage is low
+     *
+     * @param priority The priority, e.g. {@link Log#INFO}
+     */
+    public void setLowSpaceMinPriority(int priority) {
+        mLowSpaceMinPriority = priority;
+    }
+
+    /**
+     * Set the max bytes kept in memory log when storage is full, the oldest data is dropped first
+     *
+     * @param limit The max bytes
+     */
+    public void setMemoryLogLimit(int limit) {
+        synchronized (mLock) {
+            mMemoryLogLimit = limit;
+            trimMemoryLog();
+        }
+    }
+
+    /**
+     * Get the data kept in memory while storage is full
+     *
+     * @return The data
+     */
+    public String getMemoryLog() {
+        synchronized (mLock) {
+            byte[] all = new byte[mMemoryLogBytes];
+            int pos = 0;
+            for (byte[] data : mMemoryLog) {
+                System.arraycopy(data, 0, all, pos, data.length);
+                pos += data.length;
+            }
+            return new String(all);
+        }
+    }
+
+    private boolean isLowPriorityDropped(int priority) {
+        StorageWatchdog watchdog = mStorageWatchdog;
+        return priority < mLowSpaceMinPriority && watchdog != null &&
+                watchdog.getState().compareTo(StorageWatchdog.State.DROP_LOW_PRIORITY) >= 0;
+    }
+
+    private boolean isMemoryOnly() {
+        StorageWatchdog watchdog = mStorageWatchdog;
+        return watchdog != null && watchdog.getState() == StorageWatchdog.State.MEMORY_ONLY;
+    }
+
+    private boolean hasSinkLocked() {
+        return mLogStore != null || mLogTail != null;
+    }
+
+    private void appendMemoryLog(byte[] bytes, int off, int len) {
+        // Nothing is open to drain it into, like writes without storage issues it's dropped
+        if (len <= 0 || !hasSinkLocked()) return;
+        // Text and bytes are kept the same way, so they're drained in order
+        mMemoryLog.addLast(Arrays.copyOfRange(bytes, off, off + len));
+        mMemoryLogBytes += len;
+        trimMemoryLog();
+    }
+
+    private void trimMemoryLog() {
+        while (mMemoryLogBytes > mMemoryLogLimit && !mMemoryLog.isEmpty()) {
+            mMemoryLogBytes -= mMemoryLog.removeFirst().length;
+        }
+    }
+
+    private void drainMemoryLog() {
+        synchronized (mLock) {
+            // Kept until storage recovers and a log file or store is open
+            if (isMemoryOnly() || mMemoryLog.isEmpty() || !hasSinkLocked()) return;
+            try {
+                for (byte[] data : mMemoryLog) writeRawLocked(data, 0, data.length);
+                mMemoryLog.clear();
+                mMemoryLogBytes = 0;
+                onWriteOk();
+            } catch (IOException e) {
+                onWriteError(e);
+            }
+        }
+    }
+
+    /**
+     * Only the first failure of a row is logged with stack trace, the storage is rechecked at once
+     */
+    private void onWriteError(IOException e) {
+        if (mWriteErrorCount++ == 0) {
+            mDiagnostics.e(e);
+        }
+        StorageWatchdog watchdog = mStorageWatchdog;
+        if (watchdog != null) watchdog.requestRefresh();
+    }
+
+    private void onWriteOk() {
+        if (mWriteErrorCount > 0) {
+            mDiagnostics.i("Recovered after " + mWriteErrorCount + " failed writes");
+            mWriteErrorCount = 0;
+        }
+    }
+
+    /**
+     * Compress the closed log files created by this instance in directory with gzip, the store
+     * segments are left for replay
+     *
+     * @param dir The directory
+     */
+    public void compressLogFiles(File dir) {
+        File[] files = dir.listFiles(mClosedLogFileFilter);
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".gz") || name.endsWith(SegmentedLogStore.EXT)) continue;
+            File gz = new File(dir, file.getName() + ".gz");
+            FileInputStream in = null;
+            GZIPOutputStream out = null;
+            try {
+                in = new FileInputStream(file);
+                out = new GZIPOutputStream(new FileOutputStream(gz));
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+                out.finish();
+                out.close();
+                out = null;
+                mCreatedFiles.add(gz.getAbsoluteFile());
+                boolean b = gz.setLastModified(file.lastModified()) && file.delete();
+                if (b) mCreatedFiles.remove(file.getAbsoluteFile());
+                mDiagnostics.i("Compress " + file.getPath() + " " + (b ? "ok" : "fail"));
+                LogHousekeeper housekeeper = mHousekeeper;
+                if (housekeeper != null) {
+                    housekeeper.onFileChanged(gz);
+                    housekeeper.onFileChanged(file);
+                }
+            } catch (IOException e) {
+                mDiagnostics.e(e);
+                if (out != null) gz.delete();
+            } finally {
+                try {
+                    if (in != null) in.close();
+                    if (out != null) out.close();
+                } catch (IOException e) {
+                    mDiagnostics.e(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the oldest closed log files created by this instance in directory until the usable
+     * space is expected to reach target, by the file sizes instead of checking space after each
+     * delete
+     *
+     * @param dir         The directory
+     * @param usableBytes The target usable bytes
+     */
+    public void deleteOldestLogFiles(File dir, long usableBytes) {
+        StorageWatchdog watchdog = mStorageWatchdog;
+        long needed = usableBytes - (watchdog != null ? watchdog.getSpaceSource() : StorageWatchdog.FILE_SYSTEM)
+                .getUsableSpace(dir);
+        if (needed <= 0) return;
+        LogHousekeeper housekeeper = mHousekeeper;
+        if (housekeeper != null && housekeeper.isManaged(dir)) {
+            // Pick the files from catalog
+            housekeeper.deleteOldest(dir, needed, mClosedLogFileFilter);
+            for (File file : mCreatedFiles) {
+                if (!file.exists()) mCreatedFiles.remove(file);
+            }
+            return;
+        }
+        File[] files = dir.listFiles(mClosedLogFileFilter);
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (needed <= 0) break;
+            long size = file.length();
+            boolean b = file.delete();
+            mDiagnostics.i("Delete " + file.getPath() + " " + (b ? "ok" : "fail"));
+            if (b) {
+                needed -= size;
+                mCreatedFiles.remove(file.getAbsoluteFile());
+            }
+        }
+    }
+
+    private boolean isActiveLogFile(File file) {
+        File abs = file.getAbsoluteFile();
+        File active = fileLog;
+        File segment = mStoreSegment;
+        return (active != null && active.getAbsoluteFile().equals(abs)) ||
+                (segment != null && segment.getAbsoluteFile().equals(abs));
+    }
+    // endregion [Storage Watchdog]
+
+    // region [Housekeeping]
+    private volatile LogHousekeeper mHousekeeper = null;
+
+    /**
+     * Set the housekeeper, it's told about the log files this instance writes and deletes, and
+     * the active log file and store segment are protected from its retention
+     *
+     * @param housekeeper The housekeeper, null to disable
+     */
+    public void setHousekeeper(LogHousekeeper housekeeper) {
+        synchronized (mLock) {
+            File[] active = {fileLog, mStoreSegment};
+            for (File file : active) {
+                if (file == null) continue;
+                if (mHousekeeper != null) mHousekeeper.unprotect(file);
+                if (housekeeper != null) {
+                    housekeeper.protect(file);
+                    housekeeper.onFileChanged(file);
+                }
+            }
+            mHousekeeper = housekeeper;
+        }
+    }
+
+    /**
+     * Get the housekeeper
+     *
+     * @return The housekeeper, null if not set
+     */
+    public LogHousekeeper getHousekeeper() {
+        return mHousekeeper;
+    }
+
+    /**
+     * Update housekeeper with the closed log file, must hold mLock
+     */
+    private void onLogFileClosed(File file) {
+        LogHousekeeper housekeeper = mHousekeeper;
+        if (housekeeper == null || file == null) return;
+        housekeeper.unprotect(file);
+        housekeeper.onFileChanged(file);
+    }
+    // endregion [Housekeeping]
+
     // region [Save/Read File]
 
     /**
@@ -324,7 +1134,7 @@ public class LogLib {
      * @param data     The data to save
      */
     synchronized public void saveFile(File fileDir, String fileName, String data) {
-        KLog.i("file: " + fileDir.getPath() + File.separator + fileName);
+        mDiagnostics.i("file: " + fileDir.getPath() + File.separator + fileName);
         if (isExternalStorageWritable()) {
             writeToFile(fileDir, fileName, data);
         }
@@ -338,21 +1148,21 @@ public class LogLib {
      * @param data     The data to write
      */
     synchronized private void writeToFile(File fileDir, String fileName, String data) {
-        KLog.i("file: " + fileDir.getPath() + File.separator + fileName);
+        mDiagnostics.i("file: " + fileDir.getPath() + File.separator + fileName);
 
         // Create file
         File fileWrite = new File(fileDir, fileName);
         try {
             if (fileWrite.exists()) {
                 boolean b = fileWrite.delete();
-                KLog.i("Delete " + (b ? "ok" : "fail"));
+                mDiagnostics.i("Delete " + (b ? "ok" : "fail"));
             }
             boolean b = fileWrite.createNewFile();
-            KLog.i("Create " + (b ? "ok" : "fail"));
+            mDiagnostics.i("Create " + (b ? "ok" : "fail"));
         } catch (IOException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (Exception e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         }
 
         // Write data to file
@@ -364,16 +1174,16 @@ public class LogLib {
                 s.flush();
             }
         } catch (FileNotFoundException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (IOException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (Exception e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } finally {
             try {
                 if (s != null) s.close();
             } catch (Exception e) {
-                KLog.e(Log.getStackTraceString(e));
+                mDiagnostics.e(e);
             }
         }
     }
@@ -386,7 +1196,7 @@ public class LogLib {
      * @return The read data
      */
     synchronized public String readFile(File fileDir, String fileName) {
-        KLog.i("file: " + fileDir.getPath() + File.separator + fileName);
+        mDiagnostics.i("file: " + fileDir.getPath() + File.separator + fileName);
         if (isExternalStorageReadable()) {
             return readFromFile(fileDir, fileName);
         }
@@ -394,12 +1204,12 @@ public class LogLib {
     }
 
     synchronized private String readFromFile(File fileDir, String fileName) {
-        KLog.i("file: " + fileDir.getPath() + File.separator + fileName);
+        mDiagnostics.i("file: " + fileDir.getPath() + File.separator + fileName);
 
         // The read file
         File fileRead = new File(fileDir, fileName);
         if (!fileRead.exists()) {
-            KLog.i("File doesn't exist");
+            mDiagnostics.i("File doesn't exist");
             return "File doesn't exist";
         }
 
@@ -415,20 +1225,20 @@ public class LogLib {
                 }
             }
         } catch (FileNotFoundException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (IOException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (Exception e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } finally {
             try {
                 if (s != null) s.close();
             } catch (Exception e) {
-                KLog.e(Log.getStackTraceString(e));
+                mDiagnostics.e(e);
             }
         }
 
-        KLog.i("Read from file: " + sb.toString());
+        mDiagnostics.i("Read from file: " + sb.toString());
         return sb.toString();
     }
 
@@ -440,7 +1250,7 @@ public class LogLib {
      */
     synchronized public byte[] readFile(String fullFilePath) {
 
-        KLog.i("file: " + fullFilePath);
+        mDiagnostics.i("file: " + fullFilePath);
 
         if (isExternalStorageReadable()) {
             return readFromFile(fullFilePath);
@@ -450,13 +1260,13 @@ public class LogLib {
 
     synchronized private byte[] readFromFile(String fullFilePath) {
 
-        KLog.i("file: " + fullFilePath);
+        mDiagnostics.i("file: " + fullFilePath);
         byte[] bytes = null;
 
         // The read file
         File fileRead = new File(fullFilePath);
         if (!fileRead.exists()) {
-            KLog.i("File doesn't exist");
+            mDiagnostics.i("File doesn't exist");
             return bytes;
         }
 
@@ -469,16 +1279,16 @@ public class LogLib {
                 s.read(bytes);
             }
         } catch (FileNotFoundException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (IOException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (Exception e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } finally {
             try {
                 if (s != null) s.close();
             } catch (Exception e) {
-                KLog.e(Log.getStackTraceString(e));
+                mDiagnostics.e(e);
             }
         }
 
@@ -486,5 +1296,149 @@ public class LogLib {
     }
     // endregion [Save/Read File]
 
+    // region [Async]
+    private IoScheduler mIoScheduler;
+
+    /**
+     * Set the scheduler to run async file operations, the default one runs on caller thread
+     *
+     * @param scheduler The I/O scheduler
+     */
+    public void setIoScheduler(@NonNull IoScheduler scheduler) {
+        mIoScheduler = scheduler;
+    }
+
+    /**
+     * Get the scheduler to run async file operations
+     *
+     * @return The I/O scheduler
+     */
+    public IoScheduler getIoScheduler() {
+        return mIoScheduler;
+    }
+
+    /**
+     * Open/Create log file on I/O scheduler
+     *
+     * @param fileDir  The dir of file
+     * @param fileName The log file name
+     * @param callback The completion callback, could be null
+     * @return The task, the result is true if open ok
+     */
+    public IoScheduler.IoTask<Boolean> openLogFileAsync(final File fileDir, final String fileName,
+                                                        IoScheduler.Callback<Boolean> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.OPEN_CLOSE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return openLogFile(fileDir, fileName);
+            }
+        }, callback);
+    }
+
+    /**
+     * Flush log file on I/O scheduler
+     *
+     * @param callback The completion callback, could be null
+     * @return The task
+     */
+    public IoScheduler.IoTask<Void> flushLogFileAsync(IoScheduler.Callback<Void> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.FLUSH, new Callable<Void>() {
+            @Override
+            public Void call() {
+                flushLogFile();
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Close log file on I/O scheduler
+     *
+     * @param callback The completion callback, could be null
+     * @return The task, the result is the closed file path
+     */
+    public IoScheduler.IoTask<String> closeLogFileAsync(IoScheduler.Callback<String> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.OPEN_CLOSE, new Callable<String>() {
+            @Override
+            public String call() {
+                return closeLogFileReturnPath();
+            }
+        }, callback);
+    }
+
+    /**
+     * Save data to file on I/O scheduler
+     *
+     * @param fileDir  The dir to save
+     * @param fileName The file to save
+     * @param data     The data to save
+     * @param callback The completion callback, could be null
+     * @return The task
+     */
+    public IoScheduler.IoTask<Void> saveFileAsync(final File fileDir, final String fileName, final String data,
+                                                  IoScheduler.Callback<Void> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.WRITE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                saveFile(fileDir, fileName, data);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Read data from file on I/O scheduler
+     *
+     * @param fileDir  The dir to read
+     * @param fileName The file to read
+     * @param callback The completion callback, could be null
+     * @return The task, the result is the read data
+     */
+    public IoScheduler.IoTask<String> readFileAsync(final File fileDir, final String fileName,
+                                                    IoScheduler.Callback<String> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.READ, new Callable<String>() {
+            @Override
+            public String call() {
+                return readFile(fileDir, fileName);
+            }
+        }, callback);
+    }
+
+    /**
+     * Read data from file on I/O scheduler
+     *
+     * @param fullFilePath The full path of the file to read
+     * @param callback     The completion callback, could be null
+     * @return The task, the result is the read byte array
+     */
+    public IoScheduler.IoTask<byte[]> readFileAsync(final String fullFilePath,
+                                                    IoScheduler.Callback<byte[]> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.READ, new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return readFile(fullFilePath);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete all files in specific folder on I/O scheduler
+     *
+     * @param dir      The directory to be deleted.
+     * @param callback The completion callback, could be null
+     * @return The task
+     */
+    public IoScheduler.IoTask<Void> deleteAllFilesAsync(@NonNull final String dir,
+                                                        IoScheduler.Callback<Void> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.DELETE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                deleteAllFiles(dir);
+                return null;
+            }
+        }, callback);
+    }
+    // endregion [Async]
+
     // endregion [External Storage]
 }
@@ -0,0 +1,85 @@
+package com.ppcrong.loglib;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log Metrics
+ * <p>
+ * Counters and the current flush decision of the log pipeline, updated by the writer and read by
+ * anyone without locking.
+ */
+public class LogMetrics {
+
+    private final AtomicLong mFlushCount = new AtomicLong();
+    private final AtomicLong mFlushedBytes = new AtomicLong();
+    private volatile double mWriteRate = 0;
+    private volatile long mFlushLatencyNanos = 0;
+    private volatile AdaptiveFlusher.Decision mFlushDecision = AdaptiveFlusher.Decision.FLUSH_NOW;
+    private volatile long mFlushDelayNanos = 0;
+
+    void onFlush(long bytes) {
+        mFlushCount.incrementAndGet();
+        mFlushedBytes.addAndGet(bytes);
+    }
+
+    void setFlushState(double writeRate, long flushLatencyNanos, AdaptiveFlusher.Decision decision, long delayNanos) {
+        mWriteRate = writeRate;
+        mFlushLatencyNanos = flushLatencyNanos;
+        mFlushDecision = decision;
+        mFlushDelayNanos = delayNanos;
+    }
+
+    /**
+     * Get the count of flushes
+     *
+     * @return The count
+     */
+    public long getFlushCount() {
+        return mFlushCount.get();
+    }
+
+    /**
+     * Get the bytes written by flushes
+     *
+     * @return The bytes
+     */
+    public long getFlushedBytes() {
+        return mFlushedBytes.get();
+    }
+
+    /**
+     * Get the smoothed incoming write rate
+     *
+     * @return The rate in bytes per second
+     */
+    public double getWriteRate() {
+        return mWriteRate;
+    }
+
+    /**
+     * Get the smoothed flush latency
+     *
+     * @return The latency in ns
+     */
+    public long getFlushLatencyNanos() {
+        return mFlushLatencyNanos;
+    }
+
+    /**
+     * Get the current decision of adaptive flusher
+     *
+     * @return The decision
+     */
+    public AdaptiveFlusher.Decision getFlushDecision() {
+        return mFlushDecision;
+    }
+
+    /**
+     * Get the current max delay of a batched write before it's flushed
+     *
+     * @return The delay in ns, 0 when flushing immediately
+     */
+    public long getFlushDelayNanos() {
+        return mFlushDelayNanos;
+    }
+}
@@ -0,0 +1,105 @@
+package com.ppcrong.loglib;
+
+/**
+ * Record passed to {@link LogSink}
+ * <p>
+ * The router keeps one record per thread and reuses it. The line
+ * "MM-dd HH:mm:ss.SSS P/TAG: message\n" is encoded as UTF-8 on the first {@link #getBytes()}
+ * call, the other sinks of the same record get the same bytes.
+ */
+public class LogRecord {
+
+    private static final String PRIORITY_CHARS = "??VDIWEA";
+
+    private int mPriority;
+    private String mTag;
+    private String mMessage;
+    private long mTimeMillis;
+    private byte[] mBytes = new byte[256];
+    private int mLength = -1;
+    boolean mInUse = false;
+
+    private final LogTimestamp mTimestamp = new LogTimestamp();
+
+    void set(int priority, String tag, String message, long timeMillis) {
+        mPriority = priority;
+        mTag = tag == null ? "" : tag;
+        mMessage = message == null ? "null" : message;
+        mTimeMillis = timeMillis;
+        mLength = -1;
+    }
+
+    /**
+     * Get the priority
+     *
+     * @return The priority, e.g. {@link android.util.Log#DEBUG}
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Get the tag
+     *
+     * @return The tag, empty if no tag
+     */
+    public String getTag() {
+        return mTag;
+    }
+
+    /**
+     * Get the message
+     *
+     * @return The message
+     */
+    public String getMessage() {
+        return mMessage;
+    }
+
+    /**
+     * Get the time the record was routed
+     *
+     * @return The time in ms
+     */
+    public long getTimeMillis() {
+        return mTimeMillis;
+    }
+
+    /**
+     * Get the encoded line, valid in [0, {@link #getLength()})
+     *
+     * @return The buffer, it's reused for the next record
+     */
+    public byte[] getBytes() {
+        if (mLength < 0) encode();
+        return mBytes;
+    }
+
+    /**
+     * Get the length of encoded line
+     *
+     * @return The length
+     */
+    public int getLength() {
+        if (mLength < 0) encode();
+        return mLength;
+    }
+
+    private void encode() {
+        // A char takes at most 3 bytes, surrogate pairs take 4 bytes for 2 chars
+        int max = LogTimestamp.LENGTH + 3 + (mTag.length() + mMessage.length()) * 3 + 3;
+        if (mBytes.length < max) mBytes = new byte[Math.max(max, mBytes.length * 2)];
+        byte[] b = mBytes;
+
+        int pos = mTimestamp.encode(mTimeMillis, b, 0);
+        b[pos++] = ' ';
+        b[pos++] = (byte) (mPriority >= 0 && mPriority < PRIORITY_CHARS.length() ? PRIORITY_CHARS.charAt(mPriority) : '?');
+        b[pos++] = '/';
+        pos = LogTimestamp.putUtf8(b, pos, mTag);
+        b[pos++] = ':';
+        b[pos++] = ' ';
+        pos = LogTimestamp.putUtf8(b, pos, mMessage);
+        b[pos++] = '\n';
+        mLength = pos;
+    }
+}
@@ -0,0 +1,198 @@
+package com.ppcrong.loglib;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Route records by tag and priority to one or more sinks, e.g. {@link FileLogSink},
+ * {@link RingLogSink}, {@link KLogSink} or a custom {@link LogSink}
+ * <p>
+ * Routes are compiled into a table of sinks per tag and priority, swapped by a volatile write, so
+ * routing a record is one map lookup and an array index without lock or allocation. Each record
+ * is encoded at most once and the bytes are shared by all of its sinks.
+ */
+public class LogRouter {
+
+    /**
+     * Tag matching any tag
+     */
+    public static final String ANY_TAG = "*";
+
+    /**
+     * Priorities are indexed up to {@link android.util.Log#ASSERT}
+     */
+    private static final int PRIORITIES = 8;
+    private static final LogSink[] NO_SINKS = new LogSink[0];
+
+    /**
+     * Route added by {@link #addRoute(String, int, LogSink...)}
+     */
+    private static class Route {
+        final String mTag;
+        final int mMinPriority;
+        final LogSink[] mSinks;
+
+        Route(String tag, int minPriority, LogSink[] sinks) {
+            mTag = tag;
+            mMinPriority = minPriority;
+            mSinks = sinks;
+        }
+    }
+
+    /**
+     * Compiled routes, immutable once published
+     */
+    private static class Table {
+        final Map<String, LogSink[][]> mByTag;
+        final LogSink[][] mAnyTag;
+
+        Table(Map<String, LogSink[][]> byTag, LogSink[][] anyTag) {
+            mByTag = byTag;
+            mAnyTag = anyTag;
+        }
+    }
+
+    private final LogDiagnostics mDiagnostics;
+    private final Object mLock = new Object();
+    private final List<Route> mRoutes = new ArrayList<>();
+    private volatile Table mTable = compile(new ArrayList<Route>());
+    private final ThreadLocal<LogRecord> mRecord = new ThreadLocal<LogRecord>() {
+        @Override
+        protected LogRecord initialValue() {
+            return new LogRecord();
+        }
+    };
+
+    /**
+     * Ctor
+     */
+    public LogRouter() {
+        this(new AndroidLogDiagnostics());
+    }
+
+    /**
+     * Ctor
+     *
+     * @param diagnostics The diagnostics to report failed sinks
+     */
+    public LogRouter(@NonNull LogDiagnostics diagnostics) {
+        mDiagnostics = diagnostics;
+    }
+
+    /**
+     * Add a route, a record matching several routes goes to each sink once
+     *
+     * @param tag         The tag, or {@link #ANY_TAG}
+     * @param minPriority The min priority, e.g. {@link android.util.Log#INFO}
+     * @param sinks       The sinks
+     */
+    public void addRoute(@NonNull String tag, int minPriority, @NonNull LogSink... sinks) {
+        synchronized (mLock) {
+            mRoutes.add(new Route(tag, minPriority, sinks.clone()));
+            mTable = compile(mRoutes);
+        }
+    }
+
+    /**
+     * Remove all routes of a tag
+     *
+     * @param tag The tag, or {@link #ANY_TAG}
+     */
+    public void removeRoutes(@NonNull String tag) {
+        synchronized (mLock) {
+            for (int i = mRoutes.size() - 1; i >= 0; i--) {
+                if (mRoutes.get(i).mTag.equals(tag)) mRoutes.remove(i);
+            }
+            mTable = compile(mRoutes);
+        }
+    }
+
+    /**
+     * Remove all routes
+     */
+    public void clearRoutes() {
+        synchronized (mLock) {
+            mRoutes.clear();
+            mTable = compile(mRoutes);
+        }
+    }
+
+    /**
+     * Check whether a record would go to any sink, to skip building the message
+     *
+     * @param priority The priority
+     * @param tag      The tag
+     * @return true is routed, false is dropped
+     */
+    public boolean isRouted(int priority, String tag) {
+        return sinksOf(mTable, priority, tag).length > 0;
+    }
+
+    /**
+     * Route a record
+     *
+     * @param priority The priority, e.g. {@link android.util.Log#DEBUG}
+     * @param tag      The tag
+     * @param message  The message
+     */
+    public void log(int priority, String tag, String message) {
+        LogSink[] sinks = sinksOf(mTable, priority, tag);
+        if (sinks.length == 0) return;
+        LogRecord record = mRecord.get();
+        // A sink logging through this router again gets a record of its own
+        if (record.mInUse) record = new LogRecord();
+        record.mInUse = true;
+        try {
+            record.set(priority, tag, message, System.currentTimeMillis());
+            for (LogSink sink : sinks) {
+                try {
+                    sink.write(record);
+                } catch (RuntimeException e) {
+                    mDiagnostics.e(e);
+                }
+            }
+        } finally {
+            record.mInUse = false;
+        }
+    }
+
+    private static LogSink[] sinksOf(Table table, int priority, String tag) {
+        if (priority < 0) return NO_SINKS;
+        LogSink[][] byPriority = tag == null ? null : table.mByTag.get(tag);
+        if (byPriority == null) byPriority = table.mAnyTag;
+        return byPriority[Math.min(priority, PRIORITIES - 1)];
+    }
+
+    private static Table compile(List<Route> routes) {
+        Set<String> tags = new LinkedHashSet<>();
+        for (Route route : routes) {
+            if (!ANY_TAG.equals(route.mTag)) tags.add(route.mTag);
+        }
+        Map<String, LogSink[][]> byTag = new HashMap<>();
+        for (String tag : tags) {
+            byTag.put(tag, compile(routes, tag));
+        }
+        return new Table(byTag, compile(routes, ANY_TAG));
+    }
+
+    private static LogSink[][] compile(List<Route> routes, String tag) {
+        LogSink[][] byPriority = new LogSink[PRIORITIES][];
+        for (int p = 0; p < PRIORITIES; p++) {
+            Set<LogSink> sinks = new LinkedHashSet<>();
+            for (Route route : routes) {
+                if (p < route.mMinPriority) continue;
+                if (!ANY_TAG.equals(route.mTag) && !route.mTag.equals(tag)) continue;
+                sinks.addAll(Arrays.asList(route.mSinks));
+            }
+            byPriority[p] = sinks.isEmpty() ? NO_SINKS : sinks.toArray(new LogSink[sinks.size()]);
+        }
+        return byPriority;
+    }
+}
@@ -0,0 +1,17 @@
+package com.ppcrong.loglib;
+
+/**
+ * Destination of routed records, see {@link LogRouter}
+ * <p>
+ * Implement it for a custom callback. The record is reused by the router after the call, so
+ * copy what's needed instead of keeping the record or its bytes.
+ */
+public interface LogSink {
+
+    /**
+     * Called on the logging thread
+     *
+     * @param record The record, its encoded bytes are shared with the other sinks
+     */
+    void write(LogRecord record);
+}
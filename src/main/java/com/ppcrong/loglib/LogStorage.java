@@ -0,0 +1,42 @@
+package com.ppcrong.loglib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Storage SPI of the log library, it isolates the platform storage queries from file I/O
+ */
+public interface LogStorage {
+
+    /**
+     * Checks if external storage is available for read and write
+     *
+     * @return true is writable, false is not
+     */
+    boolean isWritable();
+
+    /**
+     * Checks if external storage is available to at least read
+     *
+     * @return true is readable, false is not
+     */
+    boolean isReadable();
+
+    /**
+     * Get the root directory of external storage
+     *
+     * @return The directory
+     */
+    File getExternalStorageDirectory();
+
+    /**
+     * Allocate the disk blocks of a file range, the file is extended to cover it
+     *
+     * @param file   The file
+     * @param offset The start of the range
+     * @param length The length of the range
+     * @throws IOException If the blocks can't be allocated
+     */
+    void allocate(RandomAccessFile file, long offset, long length) throws IOException;
+}
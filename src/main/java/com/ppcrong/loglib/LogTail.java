@@ -0,0 +1,515 @@
+package com.ppcrong.loglib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Buffered log stream with tail (like tail -f) and snapshot reads of an actively written log
+ * <p>
+ * Written bytes and text go into a chunk and are pushed to the file stream on flush or when the
+ * chunk is full. A full chunk is replaced by a new one instead of being reused, so the bytes a
+ * reader copies are never overwritten, the chunk list and the end positions are published by
+ * volatile fields. While there are cursors the last full chunks are kept too.
+ * <p>
+ * Readers register a {@link Cursor} to poll, or a {@link Listener} to be called back, for the
+ * flushed data. {@link #readSnapshot(long)} reads up to the last completed write, including the
+ * data not flushed yet. Both read from the chunks when they still hold the data and fall back to
+ * positional reads of one shared read-only {@link FileChannel} otherwise.
+ * <p>
+ * Writes are serialized by the caller and never wait for readers: they don't take any lock shared
+ * with them. Each text write is encoded whole, a surrogate pair split across calls is replaced.
+ */
+public class LogTail extends OutputStream {
+
+    /**
+     * Called back with new flushed data
+     */
+    public interface Listener {
+
+        /**
+         * Called on listener executor
+         *
+         * @param data The new data
+         */
+        void onData(byte[] data);
+    }
+
+    /**
+     * Default chunk size
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Chunk of bytes, holds the file data from mBase up to the next chunk base
+     */
+    private static class Chunk {
+        final byte[] mBytes;
+        final long mBase;
+
+        Chunk(int size, long base) {
+            mBytes = new byte[size];
+            mBase = base;
+        }
+    }
+
+    private final OutputStream mOut;
+    private final File mFile;
+    private final int mCapacity;
+    private final int mMaxChunks;
+    private final CharsetEncoder mEncoder;
+    private final char[] mChars = new char[DEFAULT_CHUNK_SIZE];
+    /**
+     * The kept chunks, oldest first, the last one is the write buffer
+     */
+    private volatile Chunk[] mChunks;
+    /**
+     * The end of the last completed write, all data before it is in file or chunks
+     */
+    private volatile long mEnd = 0;
+    /**
+     * The end of bytes flushed and visible to cursors
+     */
+    private volatile long mCommitted = 0;
+    private volatile boolean mClosed = false;
+    private final CopyOnWriteArrayList<Cursor> mCursors = new CopyOnWriteArrayList<>();
+
+    /**
+     * Write buffer, write position in it and the part of it pushed to stream
+     */
+    private Chunk mChunk;
+    private int mPos = 0;
+    private int mPushed = 0;
+    private ByteBuffer mEncoded;
+
+    private final Object mReadLock = new Object();
+    private RandomAccessFile mReadFile = null;
+
+    /**
+     * Ctor
+     *
+     * @param out          The stream to write to the file, it writes through (no buffer)
+     * @param file         The file written by out from its start, for readers to fall back, null
+     *                     if the file content isn't the written bytes (e.g. encrypted)
+     * @param ringCapacity The bytes kept in memory for readers
+     */
+    public LogTail(OutputStream out, File file, int ringCapacity) {
+        mOut = out;
+        mFile = file;
+        mCapacity = Math.max(ringCapacity, 64);
+        int chunkSize = Math.min(mCapacity, DEFAULT_CHUNK_SIZE);
+        // One more chunk, the last one is partly filled
+        mMaxChunks = (mCapacity + chunkSize - 1) / chunkSize + 1;
+        mEncoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        mChunk = new Chunk(chunkSize, 0);
+        mEncoded = ByteBuffer.wrap(mChunk.mBytes);
+        mChunks = new Chunk[]{mChunk};
+    }
+
+    /**
+     * Get the file of the log
+     *
+     * @return The file, null if it can't be read back
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Get the end of bytes visible to cursors
+     *
+     * @return The committed position
+     */
+    public long getCommitted() {
+        return mCommitted;
+    }
+
+    /**
+     * Get the end of the last completed write
+     *
+     * @return The bytes written
+     */
+    public long getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * Check whether the writer closed the log
+     *
+     * @return true is closed
+     */
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    // region [Writer]
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Write bytes, they're kept in order with the text
+     *
+     * @param b   The data
+     * @param off The offset
+     * @param len The length
+     * @throws IOException If write fails
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        while (len > 0) {
+            if (mPos == mChunk.mBytes.length) nextChunk();
+            int n = Math.min(len, mChunk.mBytes.length - mPos);
+            System.arraycopy(b, off, mChunk.mBytes, mPos, n);
+            mPos += n;
+            off += n;
+            len -= n;
+        }
+        mEnd = mChunk.mBase + mPos;
+    }
+
+    /**
+     * Write text encoded by the default charset, like {@link java.io.OutputStreamWriter}
+     *
+     * @param str The text
+     * @throws IOException If write fails
+     */
+    public void writeText(String str) throws IOException {
+        int len = str.length();
+        // Encoder is much faster on an array than on a wrapped string
+        char[] chars = len <= mChars.length ? mChars : new char[len];
+        str.getChars(0, len, chars, 0);
+        encode(CharBuffer.wrap(chars, 0, len));
+    }
+
+    private void encode(CharBuffer in) throws IOException {
+        checkOpen();
+        mEncoded.limit(mEncoded.capacity()).position(mPos);
+        try {
+            while (mEncoder.encode(in, mEncoded, true).isOverflow()) {
+                nextEncodedChunk();
+            }
+            while (mEncoder.flush(mEncoded).isOverflow()) {
+                nextEncodedChunk();
+            }
+        } finally {
+            mEncoder.reset();
+        }
+        mPos = mEncoded.position();
+        mEnd = mChunk.mBase + mPos;
+    }
+
+    private void nextEncodedChunk() throws IOException {
+        mPos = mEncoded.position();
+        nextChunk();
+    }
+
+    /**
+     * Push the buffered bytes to stream, flush it and publish them to cursors
+     *
+     * @throws IOException If write fails
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        push();
+        mOut.flush();
+        publish();
+    }
+
+    /**
+     * Close the stream, the written bytes are committed before it's seen closed, so a reader
+     * seeing {@link #isClosed()} has all data to read
+     *
+     * @throws IOException If close fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        try {
+            push();
+            mOut.flush();
+        } finally {
+            try {
+                mOut.close();
+            } finally {
+                mCommitted = mChunk.mBase + mPushed;
+                mClosed = true;
+                publish();
+                releaseReadFile();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (mClosed) throw new IOException("Stream closed");
+    }
+
+    private void push() throws IOException {
+        if (mPos == mPushed) return;
+        mOut.write(mChunk.mBytes, mPushed, mPos - mPushed);
+        mPushed = mPos;
+    }
+
+    private void nextChunk() throws IOException {
+        push();
+        Chunk chunk = new Chunk(mChunk.mBytes.length, mChunk.mBase + mPos);
+        Chunk[] chunks;
+        if (mCursors.isEmpty()) {
+            // Nobody tails the memory, the late readers read the file
+            chunks = new Chunk[]{chunk};
+        } else {
+            Chunk[] kept = mChunks;
+            chunks = Arrays.copyOfRange(kept, Math.max(0, kept.length + 1 - mMaxChunks), kept.length + 1);
+            chunks[chunks.length - 1] = chunk;
+        }
+        mChunks = chunks;
+        mChunk = chunk;
+        mEncoded = ByteBuffer.wrap(chunk.mBytes);
+        mPos = 0;
+        mPushed = 0;
+    }
+
+    private void publish() {
+        mCommitted = mChunk.mBase + mPushed;
+        for (Cursor c : mCursors) {
+            c.wake();
+        }
+    }
+    // endregion [Writer]
+
+    // region [Reader]
+
+    /**
+     * Read the data from position up to the last completed write, including the data not
+     * flushed yet. It doesn't block the writer.
+     *
+     * @param position The position to read from
+     * @return The data, empty if nothing after position
+     * @throws IOException If the file can't be read
+     */
+    public byte[] readSnapshot(long position) throws IOException {
+        long end = mEnd;
+        if (position >= end) return new byte[0];
+        byte[] data = new byte[(int) (end - position)];
+        try {
+            readAt(position, end, data, 0, data.length);
+        } finally {
+            if (mClosed) releaseReadFile();
+        }
+        return data;
+    }
+
+    /**
+     * Open a cursor
+     *
+     * @param fromStart true to read from the file start, false to read new data only
+     * @return The cursor
+     */
+    public Cursor openCursor(boolean fromStart) {
+        Cursor c = new Cursor(fromStart ? 0 : mCommitted);
+        mCursors.add(c);
+        return c;
+    }
+
+    /**
+     * Register a listener called back on executor for new flushed data
+     *
+     * @param listener  The listener
+     * @param executor  The executor to call back, it must not block the caller
+     * @param fromStart true to read from the file start, false to read new data only
+     * @return The cursor of listener, close it to unregister
+     */
+    public Cursor addListener(Listener listener, Executor executor, boolean fromStart) {
+        Cursor c = new Cursor(fromStart ? 0 : mCommitted);
+        c.mListener = listener;
+        c.mExecutor = executor;
+        mCursors.add(c);
+        // Deliver the data already there
+        c.wake();
+        return c;
+    }
+
+    /**
+     * Read the bytes in [position, position + len) below limit from the chunks or the file
+     *
+     * @param limit The end of readable bytes, mEnd or mCommitted read by the caller
+     * @return The read count
+     */
+    private int readAt(long position, long limit, byte[] dst, int off, int len) throws IOException {
+        if (position >= limit) return 0;
+        int n = (int) Math.min(len, limit - position);
+        // Read after limit, the chunks hold all bytes in [first base, limit), the file the bytes
+        // before the last base
+        Chunk[] chunks = mChunks;
+        int copied = 0;
+        if (position < chunks[0].mBase) {
+            copied = (int) Math.min(n, chunks[0].mBase - position);
+            readFile(position, dst, off, copied);
+        }
+        for (int i = 0; i < chunks.length && copied < n; i++) {
+            long at = position + copied;
+            long chunkEnd = i + 1 < chunks.length ? chunks[i + 1].mBase : limit;
+            if (at >= chunkEnd) continue;
+            int count = (int) Math.min(n - copied, chunkEnd - at);
+            System.arraycopy(chunks[i].mBytes, (int) (at - chunks[i].mBase), dst, off + copied, count);
+            copied += count;
+        }
+        return copied;
+    }
+
+    private void readFile(long position, byte[] dst, int off, int len) throws IOException {
+        if (mFile == null) throw new IOException("Data at " + position + " is no longer in memory");
+        FileChannel channel = readChannel();
+        ByteBuffer buf = ByteBuffer.wrap(dst, off, len);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position() - off) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private FileChannel readChannel() throws IOException {
+        synchronized (mReadLock) {
+            // Positional reads share the channel, it's opened again if an interrupt closed it
+            if (mReadFile == null || !mReadFile.getChannel().isOpen()) {
+                mReadFile = new RandomAccessFile(mFile, "r");
+            }
+            return mReadFile.getChannel();
+        }
+    }
+
+    private void releaseReadFile() {
+        synchronized (mReadLock) {
+            if (!mClosed || !mCursors.isEmpty() || mReadFile == null) return;
+            try {
+                mReadFile.close();
+            } catch (IOException e) {
+                // Nothing to do with a read-only file
+            }
+            mReadFile = null;
+        }
+    }
+
+    /**
+     * Reader cursor, a cursor is used by one reader thread
+     */
+    public class Cursor {
+
+        private long mPosition;
+        private volatile Thread mWaiter = null;
+        private volatile boolean mCursorClosed = false;
+        private Listener mListener = null;
+        private Executor mExecutor = null;
+        private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+        private final Runnable mDeliver = new Runnable() {
+            @Override
+            public void run() {
+                // Only one delivery runs at a time, check again for data published while leaving
+                do {
+                    try {
+                        byte[] data;
+                        while (!mCursorClosed && (data = read()).length > 0) {
+                            mListener.onData(data);
+                        }
+                    } catch (IOException e) {
+                        close();
+                    }
+                    mScheduled.set(false);
+                } while (!mCursorClosed && mCommitted > mPosition && mScheduled.compareAndSet(false, true));
+            }
+        };
+
+        Cursor(long position) {
+            mPosition = position;
+        }
+
+        /**
+         * Get the position of next read
+         *
+         * @return The position
+         */
+        public long getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * Read the new committed data, it doesn't block
+         *
+         * @return The data, empty if nothing new
+         * @throws IOException If the file fallback read fails
+         */
+        public byte[] read() throws IOException {
+            long committed = mCommitted;
+            long available = committed - mPosition;
+            if (available <= 0) return new byte[0];
+            byte[] data = new byte[(int) Math.min(available, mCapacity)];
+            int n = readAt(mPosition, committed, data, 0, data.length);
+            mPosition += n;
+            return n == data.length ? data : Arrays.copyOf(data, n);
+        }
+
+        /**
+         * Wait and read the new committed data
+         *
+         * @param timeout The max time to wait
+         * @param unit    The unit of timeout
+         * @return The data, empty if timeout or the log is closed
+         * @throws IOException          If the file fallback read fails
+         * @throws InterruptedException If interrupted while waiting
+         */
+        public byte[] poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (true) {
+                // Closed is read before the data, the data committed before close is not missed
+                boolean closed = mClosed;
+                byte[] data = read();
+                if (data.length > 0 || closed || mCursorClosed) return data;
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return data;
+                mWaiter = Thread.currentThread();
+                // Check again after register, the writer may have published in between
+                if (mCommitted == mPosition && !mClosed) LockSupport.parkNanos(this, remaining);
+                mWaiter = null;
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+        }
+
+        /**
+         * Close the cursor
+         */
+        public void close() {
+            mCursorClosed = true;
+            mCursors.remove(this);
+            Thread waiter = mWaiter;
+            if (waiter != null) LockSupport.unpark(waiter);
+            releaseReadFile();
+        }
+
+        private void wake() {
+            Thread waiter = mWaiter;
+            if (waiter != null) LockSupport.unpark(waiter);
+            if (mListener != null && mScheduled.compareAndSet(false, true)) {
+                mExecutor.execute(mDeliver);
+            }
+        }
+    }
+    // endregion [Reader]
+}
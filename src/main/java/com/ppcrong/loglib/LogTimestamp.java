@@ -0,0 +1,92 @@
+package com.ppcrong.loglib;
+
+import java.util.Calendar;
+
+/**
+ * Encoder of "MM-dd HH:mm:ss.SSS" timestamp into byte array, the part down to seconds is cached
+ * <p>
+ * It's not thread safe, each writer keeps its own.
+ */
+class LogTimestamp {
+
+    /**
+     * Length of encoded timestamp
+     */
+    static final int LENGTH = 18;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final byte[] mSecondPrefix = new byte[14]; // MM-dd HH:mm:ss
+    private long mPrefixSecond = Long.MIN_VALUE;
+
+    /**
+     * Encode timestamp
+     *
+     * @param timeMillis The time in ms
+     * @param b          The buffer
+     * @param pos        The position to encode at, LENGTH bytes are written
+     * @return The position after timestamp
+     */
+    int encode(long timeMillis, byte[] b, int pos) {
+        long second = timeMillis / 1000L;
+        if (second != mPrefixSecond) {
+            mCalendar.setTimeInMillis(timeMillis);
+            put2(mSecondPrefix, 0, mCalendar.get(Calendar.MONTH) + 1);
+            mSecondPrefix[2] = '-';
+            put2(mSecondPrefix, 3, mCalendar.get(Calendar.DAY_OF_MONTH));
+            mSecondPrefix[5] = ' ';
+            put2(mSecondPrefix, 6, mCalendar.get(Calendar.HOUR_OF_DAY));
+            mSecondPrefix[8] = ':';
+            put2(mSecondPrefix, 9, mCalendar.get(Calendar.MINUTE));
+            mSecondPrefix[11] = ':';
+            put2(mSecondPrefix, 12, mCalendar.get(Calendar.SECOND));
+            mPrefixSecond = second;
+        }
+        System.arraycopy(mSecondPrefix, 0, b, pos, mSecondPrefix.length);
+        pos += mSecondPrefix.length;
+        int millis = (int) (timeMillis % 1000L);
+        b[pos++] = '.';
+        b[pos++] = (byte) ('0' + millis / 100);
+        b[pos++] = (byte) ('0' + millis / 10 % 10);
+        b[pos++] = (byte) ('0' + millis % 10);
+        return pos;
+    }
+
+    /**
+     * Encode string as UTF-8, the buffer must have 3 bytes per char
+     *
+     * @param b   The buffer
+     * @param pos The position to encode at
+     * @param s   The string
+     * @return The position after string
+     */
+    static int putUtf8(byte[] b, int pos, String s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                b[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xC0 | c >> 6);
+                b[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[pos++] = (byte) (0xF0 | cp >> 18);
+                b[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                b[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                b[pos++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                b[pos++] = '?';
+            } else {
+                b[pos++] = (byte) (0xE0 | c >> 12);
+                b[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                b[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return pos;
+    }
+
+    private static void put2(byte[] b, int pos, int value) {
+        b[pos] = (byte) ('0' + value / 10);
+        b[pos + 1] = (byte) ('0' + value % 10);
+    }
+}
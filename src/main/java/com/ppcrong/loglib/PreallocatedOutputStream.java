@@ -0,0 +1,252 @@
+package com.ppcrong.loglib;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Output stream writes to a preallocated file
+ * <p>
+ * The file blocks are allocated by {@link LogStorage#allocate(RandomAccessFile, long, long)} in
+ * big steps up front, so the file system doesn't need to grow it on every append. The logical end
+ * is tracked separately and the file is trimmed to it on {@link #close()}.
+ * <p>
+ * While the stream is open, a marker file next to it (the file name plus {@link #MARKER_EXT})
+ * holds the logical end as a big-endian long, it's updated on {@link #flush()} and locked by the
+ * stream. A file left preallocated by a crash still has its marker, {@link #trimPadding(File)}
+ * trims it to the end of the last flush once no stream of any process holds the marker.
+ */
+public class PreallocatedOutputStream extends OutputStream {
+
+    /**
+     * The extension of the marker file
+     */
+    public static final String MARKER_EXT = ".prealloc";
+
+    private static final int END_SIZE = 8;
+
+    private final File mFile;
+    private final File mMarkerFile;
+    private final LogStorage mStorage;
+    private final RandomAccessFile mMarker;
+    private final FileChannel mMarkerChannel;
+    private final ByteBuffer mEnd = ByteBuffer.allocate(END_SIZE);
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final long mReserveStep;
+    private long mReserved;
+    private long mPosition = 0;
+    private boolean mClosed = false;
+
+    /**
+     * Ctor, the file is truncated and reserved with the given size
+     *
+     * @param file         The file to write
+     * @param reserveBytes The bytes to reserve first and to extend each time it's full
+     * @param storage      The storage allocates the file blocks
+     * @throws IOException If the file can't be opened or reserved, or another stream writes it
+     */
+    public PreallocatedOutputStream(File file, long reserveBytes, LogStorage storage) throws IOException {
+        if (reserveBytes <= 0) throw new IllegalArgumentException("reserveBytes must be positive");
+        mFile = file.getAbsoluteFile();
+        mMarkerFile = getMarkerFile(mFile);
+        mStorage = storage;
+        mReserveStep = reserveBytes;
+        mMarker = new RandomAccessFile(mMarkerFile, "rw");
+        mMarkerChannel = mMarker.getChannel();
+        RandomAccessFile raf = null;
+        try {
+            // Released by close() or when the process dies
+            if (tryLock(mMarkerChannel) == null) throw new IOException(mFile + " is written by another stream");
+            // The end is recorded before any padding exists
+            writeEnd(0);
+            raf = new RandomAccessFile(mFile, "rw");
+            mRandomAccessFile = raf;
+            mChannel = raf.getChannel();
+            mRandomAccessFile.setLength(0);
+            mReserved = 0;
+            reserve(reserveBytes);
+        } catch (IOException e) {
+            if (raf != null) raf.close();
+            mMarker.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the logical end of the file
+     *
+     * @return The written bytes
+     */
+    public long getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Get the reserved size of the file
+     *
+     * @return The reserved bytes
+     */
+    public long getReserved() {
+        return mReserved;
+    }
+
+    /**
+     * Get the channel of the file, for positional reads
+     *
+     * @return The file channel
+     */
+    public FileChannel getChannel() {
+        return mChannel;
+    }
+
+    private void reserve(long size) throws IOException {
+        mStorage.allocate(mRandomAccessFile, mReserved, size - mReserved);
+        mReserved = size;
+    }
+
+    private void ensureCapacity(long needed) throws IOException {
+        if (needed <= mReserved) return;
+        long size = mReserved;
+        while (size < needed) size += mReserveStep;
+        reserve(size);
+    }
+
+    private void writeEnd(long end) throws IOException {
+        mEnd.clear();
+        mEnd.putLong(0, end);
+        while (mEnd.hasRemaining()) {
+            mMarkerChannel.write(mEnd, mEnd.position());
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mClosed) throw new IOException("Stream closed");
+        ensureCapacity(mPosition + len);
+        // Sequential write at file pointer, it never passes the reserved length
+        mRandomAccessFile.write(b, off, len);
+        mPosition += len;
+    }
+
+    /**
+     * Record the logical end in marker, the data up to it survives a crash
+     *
+     * @throws IOException If the marker can't be written
+     */
+    @Override
+    public void flush() throws IOException {
+        if (mClosed) throw new IOException("Stream closed");
+        writeEnd(mPosition);
+    }
+
+    /**
+     * Trim the file to the logical end and close it, the marker is deleted once trimmed
+     *
+     * @throws IOException If trim or close fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            try {
+                mChannel.truncate(mPosition);
+            } finally {
+                mRandomAccessFile.close();
+            }
+            // A marker left behind only records the end the file has already
+            mMarkerFile.delete();
+        } finally {
+            mMarker.close();
+        }
+    }
+
+    /**
+     * Get the marker file of a preallocated file
+     *
+     * @param file The file
+     * @return The marker file
+     */
+    static File getMarkerFile(File file) {
+        return new File(file.getPath() + MARKER_EXT);
+    }
+
+    /**
+     * List the files in directory which have a marker, i.e. being written or left by a crash
+     *
+     * @param dir The directory
+     * @return The files
+     */
+    public static File[] listPreallocatedFiles(File dir) {
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.length() > MARKER_EXT.length() && name.endsWith(MARKER_EXT);
+            }
+        });
+        if (names == null) return new File[0];
+        File[] files = new File[names.length];
+        for (int i = 0; i < names.length; i++) {
+            files[i] = new File(dir, names[i].substring(0, names[i].length() - MARKER_EXT.length()));
+        }
+        return files;
+    }
+
+    /**
+     * Trim a file left preallocated by a crash to the logical end recorded in its marker and
+     * delete the marker. A file still written by a stream of any process is left alone.
+     *
+     * @param file The file
+     * @return true is trimmed, false is no marker, being written or nothing to trim
+     * @throws IOException If the marker can't be read or the file can't be trimmed
+     */
+    public static boolean trimPadding(File file) throws IOException {
+        File markerFile = getMarkerFile(file);
+        if (!markerFile.isFile()) return false;
+        RandomAccessFile marker = new RandomAccessFile(markerFile, "rw");
+        try {
+            FileChannel channel = marker.getChannel();
+            if (tryLock(channel) == null) return false;
+            ByteBuffer end = ByteBuffer.allocate(END_SIZE);
+            while (end.hasRemaining()) {
+                if (channel.read(end, end.position()) < 0) break;
+            }
+            boolean trimmed = false;
+            // A marker without an end was torn before the file was reserved
+            if (!end.hasRemaining() && file.isFile() && file.length() > end.getLong(0)) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(end.getLong(0));
+                } finally {
+                    raf.close();
+                }
+                trimmed = true;
+            }
+            markerFile.delete();
+            return trimmed;
+        } finally {
+            marker.close();
+        }
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by a stream of this process
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.ppcrong.loglib;
+
+/**
+ * Sink keeps the latest records in an in-memory ring, the oldest records are dropped when full
+ */
+public class RingLogSink implements LogSink {
+
+    private final byte[] mRing;
+    /**
+     * Start of the oldest record and end of the newest one, the ring holds [mStart, mEnd)
+     */
+    private long mStart = 0;
+    private long mEnd = 0;
+
+    /**
+     * Ctor
+     *
+     * @param capacity The ring size in bytes
+     */
+    public RingLogSink(int capacity) {
+        if (capacity <= 4) throw new IllegalArgumentException("capacity too small");
+        mRing = new byte[capacity];
+    }
+
+    @Override
+    public synchronized void write(LogRecord record) {
+        int len = record.getLength();
+        // Records are stored as [4 bytes length][line]
+        if (4 + len > mRing.length) return;
+        while (mEnd + 4 + len - mStart > mRing.length) {
+            mStart += 4 + readLength(mStart);
+        }
+        writeLength(mEnd, len);
+        copyIn(mEnd + 4, record.getBytes(), 0, len);
+        mEnd += 4 + len;
+    }
+
+    /**
+     * Get the records held in ring
+     *
+     * @return The lines, oldest first
+     */
+    public synchronized byte[] snapshot() {
+        long size = 0;
+        for (long pos = mStart; pos < mEnd; ) {
+            int len = readLength(pos);
+            size += len;
+            pos += 4 + len;
+        }
+        byte[] out = new byte[(int) size];
+        int off = 0;
+        for (long pos = mStart; pos < mEnd; ) {
+            int len = readLength(pos);
+            copyOut(pos + 4, out, off, len);
+            off += len;
+            pos += 4 + len;
+        }
+        return out;
+    }
+
+    /**
+     * Drop all records
+     */
+    public synchronized void clear() {
+        mStart = mEnd;
+    }
+
+    private int readLength(long pos) {
+        int len = 0;
+        for (int i = 0; i < 4; i++) len = len << 8 | mRing[(int) ((pos + i) % mRing.length)] & 0xFF;
+        return len;
+    }
+
+    private void writeLength(long pos, int len) {
+        for (int i = 0; i < 4; i++) mRing[(int) ((pos + i) % mRing.length)] = (byte) (len >>> (24 - 8 * i));
+    }
+
+    private void copyIn(long pos, byte[] b, int off, int len) {
+        int start = (int) (pos % mRing.length);
+        int n = Math.min(len, mRing.length - start);
+        System.arraycopy(b, off, mRing, start, n);
+        System.arraycopy(b, off + n, mRing, 0, len - n);
+    }
+
+    private void copyOut(long pos, byte[] b, int off, int len) {
+        int start = (int) (pos % mRing.length);
+        int n = Math.min(len, mRing.length - start);
+        System.arraycopy(mRing, start, b, off, n);
+        System.arraycopy(mRing, 0, b, off + n, len - n);
+    }
+}
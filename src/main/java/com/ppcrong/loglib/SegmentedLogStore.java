@@ -0,0 +1,303 @@
+package com.ppcrong.loglib;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Segmented append-only log store
+ * <p>
+ * Records are written as [length][CRC32C][payload] into segment files of fixed max size, named by
+ * segment number. Only the last segment is written, so on reopen only it is scanned to find the
+ * last valid record, a torn tail left by a crash is truncated.
+ */
+public class SegmentedLogStore implements Closeable {
+
+    /**
+     * Record header size: 4 bytes length + 4 bytes CRC32C
+     */
+    public static final int HEADER_SIZE = 8;
+    static final String EXT = ".seg";
+
+    private final File mDir;
+    private final long mSegmentBytes;
+    private long mSegmentNumber;
+    private volatile File mSegment = null;
+    private RandomAccessFile mSegmentFile = null;
+    private FileChannel mChannel = null;
+    private long mPosition = 0;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private final ByteBuffer[] mBuffers = new ByteBuffer[2];
+
+    /**
+     * Open the store, the torn tail of last segment is truncated
+     *
+     * @param dir          The directory of segments
+     * @param segmentBytes The max bytes of a segment
+     * @throws IOException If segment can't be opened or recovered
+     */
+    public SegmentedLogStore(File dir, long segmentBytes) throws IOException {
+        if (segmentBytes <= HEADER_SIZE) throw new IllegalArgumentException("segmentBytes too small");
+        mDir = dir;
+        mSegmentBytes = segmentBytes;
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("Can't create " + dir);
+        File[] segments = listSegments(dir);
+        mSegmentNumber = segments.length == 0 ? 0 : segmentNumber(segments[segments.length - 1]);
+        openSegment(mSegmentNumber);
+        recover();
+    }
+
+    /**
+     * Get the directory of segments
+     *
+     * @return The directory
+     */
+    public File getDir() {
+        return mDir;
+    }
+
+    /**
+     * Get the segment being appended
+     *
+     * @return The segment file
+     */
+    public File getSegmentFile() {
+        return mSegment;
+    }
+
+    /**
+     * Get the max payload length of a record
+     *
+     * @return The max length
+     */
+    public int getMaxRecordSize() {
+        return (int) Math.min(Integer.MAX_VALUE, mSegmentBytes - HEADER_SIZE);
+    }
+
+    /**
+     * List segment files in order, files not named by a segment number are skipped
+     *
+     * @param dir The directory of segments
+     * @return The segment files
+     */
+    public static File[] listSegments(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return isSegmentName(name);
+            }
+        });
+        if (files == null) return new File[0];
+        // Names are zero-padded numbers, sort by name is sort by number
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static boolean isSegmentName(String name) {
+        int len = name.length() - EXT.length();
+        if (len <= 0 || !name.endsWith(EXT)) return false;
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static long segmentNumber(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - EXT.length()));
+    }
+
+    private void openSegment(long number) throws IOException {
+        File file = new File(mDir, String.format(Locale.US, "%020d%s", number, EXT));
+        mSegmentFile = new RandomAccessFile(file, "rw");
+        mChannel = mSegmentFile.getChannel();
+        mPosition = 0;
+        mSegment = file;
+    }
+
+    private void recover() throws IOException {
+        long size = mChannel.size();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mSegmentFile.getFD())));
+        long valid = 0;
+        byte[] payload = new byte[0];
+        while (valid + HEADER_SIZE <= size) {
+            int len = in.readInt();
+            int crc = in.readInt();
+            if (len <= 0 || valid + HEADER_SIZE + len > size) break;
+            if (payload.length < len) payload = new byte[len];
+            in.readFully(payload, 0, len);
+            if (Crc32c.compute(payload, 0, len) != crc) break;
+            valid += HEADER_SIZE + len;
+        }
+        // The stream shares the fd, don't close it
+        if (valid < size) mChannel.truncate(valid);
+        mPosition = valid;
+        mChannel.position(valid);
+    }
+
+    /**
+     * Append a record, a new segment is started when current one can't hold it
+     *
+     * @param data The record payload
+     * @param off  The offset
+     * @param len  The length, must be positive
+     * @throws IOException If write fails
+     */
+    public synchronized void append(byte[] data, int off, int len) throws IOException {
+        if (mChannel == null) throw new IOException("Store closed");
+        if (len <= 0 || len > mSegmentBytes - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid record length " + len);
+        }
+        if (mPosition + HEADER_SIZE + len > mSegmentBytes) roll();
+        mHeader.clear();
+        mHeader.putInt(len).putInt(Crc32c.compute(data, off, len)).flip();
+        mBuffers[0] = mHeader;
+        mBuffers[1] = ByteBuffer.wrap(data, off, len);
+        while (mBuffers[1].hasRemaining()) {
+            mChannel.write(mBuffers);
+        }
+        mPosition += HEADER_SIZE + len;
+    }
+
+    /**
+     * Append a record
+     *
+     * @param data The record payload
+     * @throws IOException If write fails
+     */
+    public void append(byte[] data) throws IOException {
+        append(data, 0, data.length);
+    }
+
+    /**
+     * Force the written records to storage
+     *
+     * @throws IOException If sync fails
+     */
+    public synchronized void sync() throws IOException {
+        if (mChannel != null) mChannel.force(false);
+    }
+
+    private void roll() throws IOException {
+        mChannel.force(false);
+        mSegmentFile.close();
+        openSegment(++mSegmentNumber);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mChannel == null) return;
+        try {
+            mChannel.force(false);
+        } finally {
+            mSegmentFile.close();
+            mChannel = null;
+        }
+    }
+
+    /**
+     * Iterate all valid records from the oldest segment, for sequential replay
+     *
+     * @return The iterator, close it when done
+     */
+    public RecordIterator iterator() {
+        return new RecordIterator(listSegments(mDir));
+    }
+
+    /**
+     * Iterator of records in segments, it stops a segment at its first invalid record
+     */
+    public static class RecordIterator implements Iterator<byte[]>, Closeable {
+
+        private final File[] mSegments;
+        private int mIndex = 0;
+        private DataInputStream mIn = null;
+        private long mRemaining = 0;
+        private byte[] mNext = null;
+
+        /**
+         * Ctor
+         *
+         * @param segments The segment files in order
+         */
+        public RecordIterator(File[] segments) {
+            mSegments = segments;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mNext != null) return true;
+            try {
+                while (true) {
+                    if (mIn == null) {
+                        if (mIndex >= mSegments.length) return false;
+                        File segment = mSegments[mIndex++];
+                        mRemaining = segment.length();
+                        mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 64 * 1024));
+                    }
+                    mNext = readRecord();
+                    if (mNext != null) return true;
+                    mIn.close();
+                    mIn = null;
+                }
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        private byte[] readRecord() throws IOException {
+            if (mRemaining < HEADER_SIZE) return null;
+            try {
+                int len = mIn.readInt();
+                int crc = mIn.readInt();
+                if (len <= 0 || len > mRemaining - HEADER_SIZE) return null;
+                byte[] payload = new byte[len];
+                mIn.readFully(payload);
+                if (Crc32c.compute(payload, 0, len) != crc) return null;
+                mRemaining -= HEADER_SIZE + len;
+                return payload;
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public byte[] next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            byte[] next = mNext;
+            mNext = null;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            mIndex = mSegments.length;
+            try {
+                if (mIn != null) mIn.close();
+            } catch (IOException e) {
+                // Nothing to do with a read-only file
+            } finally {
+                mIn = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.ppcrong.loglib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Log file shared by processes through a memory-mapped region
+ * <p>
+ * File layout: header [magic][pad][capacity][tail], then records [4 bytes word][payload] aligned
+ * to 4 bytes. The tail is the end of reserved space. A writer reserves a record by moving the
+ * tail and writing the word with the payload length, then copies the payload into the mapped
+ * region and sets the committed bit of the word. Readers skip records not committed, e.g. of a
+ * process that died while writing.
+ * <p>
+ * Java has no CAS or fences on mapped memory, so the tail is guarded by a {@link FileLock} of the
+ * header (and a monitor, the lock is per process). It covers reserving a record and setting its
+ * committed bit, readers scan the words under it too, so a reader seeing the bit also sees the
+ * payload stored before it. Payloads are copied in parallel without lock. The capacity is fixed
+ * when the file is created, records not fitting are dropped.
+ * <p>
+ * The magic is written last when the file is created, a file with zero magic was left by a
+ * process died while creating it and is created again.
+ */
+public class SharedLogFile implements Closeable {
+
+    static final int MAGIC = 0x4C4C5331; // "LLS1"
+    static final int HEADER_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int TAIL_OFFSET = 16;
+    private static final int COMMITTED = 0x80000000;
+
+    /**
+     * File locks are held per process, an overlapping lock in the same process throws
+     */
+    private static final Object PROCESS_LOCK = new Object();
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mMap;
+    private final int mCapacity;
+    private final ThreadLocal<ByteBuffer> mView = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return mMap.duplicate();
+        }
+    };
+    private volatile long mDropped = 0;
+
+    /**
+     * Ctor, open the shared file or create it with capacity
+     *
+     * @param file     The file
+     * @param capacity The bytes for records when the file is created, an existing file keeps its own
+     * @throws IOException If the file can't be mapped or isn't a shared log file
+     */
+    public SharedLogFile(File file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        mFile = file;
+        mRaf = new RandomAccessFile(file, "rw");
+        mChannel = mRaf.getChannel();
+        try {
+            synchronized (PROCESS_LOCK) {
+                // The first process creates the header, the others wait on the lock and read it
+                FileLock lock = lock(mChannel, 0, HEADER_SIZE, false);
+                try {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    if (mChannel.size() >= HEADER_SIZE) {
+                        while (header.hasRemaining()) {
+                            if (mChannel.read(header, header.position()) < 0) break;
+                        }
+                    }
+                    int magic = header.getInt(0);
+                    if (magic != 0) {
+                        if (magic != MAGIC) throw new IOException("Not a shared log file");
+                        long stored = header.getLong(CAPACITY_OFFSET);
+                        if (stored <= 0 || HEADER_SIZE + stored > mChannel.size()) {
+                            throw new IOException("Invalid shared log capacity " + stored);
+                        }
+                        mCapacity = (int) stored;
+                    } else {
+                        mCapacity = capacity;
+                        mRaf.setLength(HEADER_SIZE + (long) capacity);
+                        header.clear();
+                        header.putInt(0, 0).putLong(CAPACITY_OFFSET, capacity).putLong(TAIL_OFFSET, 0);
+                        while (header.hasRemaining()) mChannel.write(header, header.position());
+                        // The magic marks the file created, only after the rest is on storage
+                        mChannel.force(false);
+                        ByteBuffer magicBytes = ByteBuffer.allocate(4).putInt(0, MAGIC);
+                        while (magicBytes.hasRemaining()) mChannel.write(magicBytes, magicBytes.position());
+                    }
+                    mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) mCapacity);
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            mRaf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the file
+     *
+     * @return The file
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Get the bytes for records
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Get the count of records dropped by this process because the file is full
+     *
+     * @return The count
+     */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Append a record
+     *
+     * @param data The data
+     * @param off  The offset
+     * @param len  The length
+     * @return true is appended, false is dropped because the file is full
+     * @throws IOException If the reservation lock fails
+     */
+    public boolean append(byte[] data, int off, int len) throws IOException {
+        if (len <= 0) return true;
+        int size = align(4 + len);
+        int pos;
+        synchronized (PROCESS_LOCK) {
+            FileLock lock = lock(mChannel, TAIL_OFFSET, 8, false);
+            try {
+                long tail = mMap.getLong(TAIL_OFFSET);
+                if (tail + size > mCapacity) {
+                    mDropped++;
+                    return false;
+                }
+                pos = HEADER_SIZE + (int) tail;
+                // The word is written before the tail covers it, so a reader never sees a zero word
+                mMap.putInt(pos, len);
+                mMap.putLong(TAIL_OFFSET, tail + size);
+            } finally {
+                lock.release();
+            }
+        }
+        ByteBuffer view = mView.get();
+        view.clear();
+        view.position(pos + 4);
+        view.put(data, off, len);
+        // Set under the lock, which orders it after the payload for readers taking the lock
+        synchronized (PROCESS_LOCK) {
+            FileLock lock = lock(mChannel, TAIL_OFFSET, 8, false);
+            try {
+                mMap.putInt(pos, len | COMMITTED);
+            } finally {
+                lock.release();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Append a record
+     *
+     * @param data The data
+     * @return true is appended, false is dropped because the file is full
+     * @throws IOException If the reservation lock fails
+     */
+    public boolean append(byte[] data) throws IOException {
+        return append(data, 0, data.length);
+    }
+
+    /**
+     * Force the mapped region to storage
+     */
+    public void force() {
+        mMap.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mMap.force();
+        } finally {
+            mRaf.close();
+        }
+    }
+
+    /**
+     * Lock a file region, an interrupt would close the channel, so it's held off while locking
+     */
+    private static FileLock lock(FileChannel channel, long position, long size, boolean shared) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            return channel.lock(position, size, shared);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy the payloads of committed records in reservation order
+     *
+     * @param file The shared log file
+     * @param out  The stream to write
+     * @return The copied records
+     * @throws IOException If the file isn't a shared log file or read fails
+     */
+    public static long copyTo(File file, OutputStream out) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) throw new IOException("Not a shared log file");
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int magic = map.getInt(0);
+            // Zero magic is a file not created completely, it has no record
+            if (magic == 0) return 0;
+            if (magic != MAGIC) throw new IOException("Not a shared log file");
+            // The committed records are found under the lock, their payloads don't change after
+            List<int[]> committed = new ArrayList<>();
+            synchronized (PROCESS_LOCK) {
+                FileLock lock = lock(channel, TAIL_OFFSET, 8, true);
+                try {
+                    long tail = Math.min(map.getLong(TAIL_OFFSET), channel.size() - HEADER_SIZE);
+                    int pos = HEADER_SIZE;
+                    while (pos + 4 <= HEADER_SIZE + tail) {
+                        int word = map.getInt(pos);
+                        int len = word & ~COMMITTED;
+                        if (len == 0 || pos + 4 + len > HEADER_SIZE + tail) break;
+                        if ((word & COMMITTED) != 0) committed.add(new int[]{pos + 4, len});
+                        pos += align(4 + len);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+            byte[] buf = new byte[8192];
+            for (int[] record : committed) {
+                map.position(record[0]);
+                for (int left = record[1]; left > 0; ) {
+                    int n = Math.min(left, buf.length);
+                    map.get(buf, 0, n);
+                    out.write(buf, 0, n);
+                    left -= n;
+                }
+            }
+            return committed.size();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+}
@@ -0,0 +1,210 @@
+package com.ppcrong.loglib;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Environment;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of external storage state
+ * <p>
+ * {@link Environment#getExternalStorageState()} is a binder call, the cache keeps its result in a
+ * volatile field updated by media broadcasts ({@link #register(Context)}) or a periodic refresher
+ * ({@link #startPeriodicRefresh(long)}). Before any of them is started, the cached state expires
+ * after max age and is queried again on next check.
+ */
+public class StorageStateCache {
+
+    /**
+     * Source of storage state, e.g. {@link Environment#getExternalStorageState()}
+     */
+    public interface Source {
+
+        /**
+         * Query the storage state
+         *
+         * @return The state, e.g. {@link Environment#MEDIA_MOUNTED}
+         */
+        String getState();
+    }
+
+    /**
+     * Source queries {@link Environment#getExternalStorageState()}
+     */
+    public static final Source ENVIRONMENT = new Source() {
+        @Override
+        public String getState() {
+            return Environment.getExternalStorageState();
+        }
+    };
+
+    private static volatile StorageStateCache sDefault = null;
+
+    private final Source mSource;
+    private volatile String mState = null;
+    private volatile long mRefreshedAt = 0;
+    private volatile long mMaxAgeNanos = TimeUnit.SECONDS.toNanos(1);
+    private volatile boolean mLive = false;
+    private BroadcastReceiver mReceiver = null;
+    private ScheduledExecutorService mScheduler = null;
+
+    /**
+     * Ctor
+     *
+     * @param source The source of storage state
+     */
+    public StorageStateCache(Source source) {
+        mSource = source;
+    }
+
+    /**
+     * Get the default cache shared by {@link LogLib} and {@link sLogLib}, it queries
+     * {@link Environment#getExternalStorageState()}
+     *
+     * @return The default cache
+     */
+    public static StorageStateCache getDefault() {
+        if (sDefault == null) {
+            synchronized (StorageStateCache.class) {
+                if (sDefault == null) sDefault = new StorageStateCache(ENVIRONMENT);
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * Set the max age of cached state when neither broadcasts nor periodic refresher is started
+     *
+     * @param maxAgeMs The max age in ms
+     */
+    public void setMaxAge(long maxAgeMs) {
+        mMaxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+    }
+
+    /**
+     * Get the cached storage state
+     *
+     * @return The state
+     */
+    public String getState() {
+        String state = mState;
+        if (state == null || (!mLive && System.nanoTime() - mRefreshedAt > mMaxAgeNanos)) {
+            state = refresh();
+        }
+        return state;
+    }
+
+    /**
+     * Checks if external storage is available for read and write
+     *
+     * @return true is writable, false is not
+     */
+    public boolean isWritable() {
+        return Environment.MEDIA_MOUNTED.equals(getState());
+    }
+
+    /**
+     * Checks if external storage is available to at least read
+     *
+     * @return true is readable, false is not
+     */
+    public boolean isReadable() {
+        String state = getState();
+        return Environment.MEDIA_MOUNTED.equals(state) ||
+                Environment.MEDIA_MOUNTED_READ_ONLY.equals(state);
+    }
+
+    /**
+     * Query the source and update the cached state now
+     *
+     * @return The new state
+     */
+    public String refresh() {
+        String state = mSource.getState();
+        mState = state;
+        mRefreshedAt = System.nanoTime();
+        return state;
+    }
+
+    /**
+     * Register media broadcasts to refresh the state, the cached state doesn't expire after it
+     *
+     * @param ctx The context
+     */
+    public synchronized void register(Context ctx) {
+        if (mReceiver != null) return;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_REMOVED);
+        filter.addAction(Intent.ACTION_MEDIA_EJECT);
+        filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+        filter.addAction(Intent.ACTION_MEDIA_SHARED);
+        filter.addAction(Intent.ACTION_MEDIA_CHECKING);
+        filter.addAction(Intent.ACTION_MEDIA_UNMOUNTABLE);
+        filter.addAction(Intent.ACTION_MEDIA_NOFS);
+        filter.addDataScheme("file");
+        mReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                refresh();
+            }
+        };
+        ctx.getApplicationContext().registerReceiver(mReceiver, filter);
+        refresh();
+        mLive = true;
+    }
+
+    /**
+     * Unregister media broadcasts
+     *
+     * @param ctx The context
+     */
+    public synchronized void unregister(Context ctx) {
+        if (mReceiver == null) return;
+        ctx.getApplicationContext().unregisterReceiver(mReceiver);
+        mReceiver = null;
+        mLive = mScheduler != null;
+    }
+
+    /**
+     * Start refreshing the state periodically in background, the cached state doesn't expire after it
+     *
+     * @param periodMs The refresh period in ms
+     */
+    public synchronized void startPeriodicRefresh(long periodMs) {
+        if (mScheduler != null) return;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StorageStateCache");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        refresh();
+        mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        mLive = true;
+    }
+
+    /**
+     * Stop refreshing the state periodically
+     */
+    public synchronized void stopPeriodicRefresh() {
+        if (mScheduler == null) return;
+        mScheduler.shutdownNow();
+        mScheduler = null;
+        mLive = mReceiver != null;
+    }
+}
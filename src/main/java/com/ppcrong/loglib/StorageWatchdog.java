@@ -0,0 +1,278 @@
+package com.ppcrong.loglib;
+
+import java.io.File;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage Watchdog
+ * <p>
+ * Tracks the free space of the log storage with a cached {@link SpaceSource} reading (by default
+ * {@link File#getUsableSpace()}) refreshed in background, and maps it to a degradation {@link State}. The log pipeline reads
+ * the state on hot path, it's only a volatile read.
+ */
+public class StorageWatchdog {
+
+    /**
+     * Degradation state, ordered from healthy to the most degraded
+     */
+    public enum State {
+        /**
+         * Enough space
+         */
+        NORMAL,
+        /**
+         * Compress closed log files
+         */
+        COMPRESS,
+        /**
+         * Also drop low priority records
+         */
+        DROP_LOW_PRIORITY,
+        /**
+         * Also delete the oldest log files
+         */
+        DELETE_OLDEST,
+        /**
+         * Stop writing files, keep records in memory only
+         */
+        MEMORY_ONLY
+    }
+
+    /**
+     * Listener of state change
+     */
+    public interface Listener {
+
+        /**
+         * Called on watchdog thread when state changed
+         *
+         * @param oldState    The old state
+         * @param newState    The new state
+         * @param usableBytes The usable bytes of storage
+         */
+        void onStateChanged(State oldState, State newState, long usableBytes);
+    }
+
+    /**
+     * Source of usable space
+     */
+    public interface SpaceSource {
+
+        /**
+         * Query the usable space
+         *
+         * @param dir The directory on the storage
+         * @return The usable bytes
+         */
+        long getUsableSpace(File dir);
+    }
+
+    /**
+     * Source queries {@link File#getUsableSpace()}
+     */
+    public static final SpaceSource FILE_SYSTEM = new SpaceSource() {
+        @Override
+        public long getUsableSpace(File dir) {
+            long usable = dir.getUsableSpace();
+            // 0 is also returned when the path is not available
+            if (usable == 0 && !dir.exists()) usable = Long.MAX_VALUE;
+            return usable;
+        }
+    };
+
+    private final File mDir;
+    private final SpaceSource mSource;
+    /**
+     * The free bytes thresholds to enter COMPRESS, DROP_LOW_PRIORITY, DELETE_OLDEST, MEMORY_ONLY
+     */
+    private volatile long[] mThresholds = {
+            64L * 1024 * 1024,
+            32L * 1024 * 1024,
+            16L * 1024 * 1024,
+            4L * 1024 * 1024
+    };
+    private volatile long mUsableBytes = Long.MAX_VALUE;
+    private volatile State mState = State.NORMAL;
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService mScheduler = null;
+    private ScheduledFuture<?> mRefreshFuture = null;
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    /**
+     * Ctor
+     *
+     * @param dir The directory on the watched storage
+     */
+    public StorageWatchdog(File dir) {
+        this(dir, FILE_SYSTEM);
+    }
+
+    /**
+     * Ctor
+     *
+     * @param dir    The directory on the watched storage
+     * @param source The source of usable space
+     */
+    public StorageWatchdog(File dir, SpaceSource source) {
+        mDir = dir;
+        mSource = source;
+    }
+
+    /**
+     * Set the free bytes thresholds to enter each degraded state, they must be descending
+     *
+     * @param compress        Free bytes below it enters COMPRESS
+     * @param dropLowPriority Free bytes below it enters DROP_LOW_PRIORITY
+     * @param deleteOldest    Free bytes below it enters DELETE_OLDEST
+     * @param memoryOnly      Free bytes below it enters MEMORY_ONLY
+     */
+    public void setThresholds(long compress, long dropLowPriority, long deleteOldest, long memoryOnly) {
+        if (compress < dropLowPriority || dropLowPriority < deleteOldest || deleteOldest < memoryOnly) {
+            throw new IllegalArgumentException("Thresholds must be descending");
+        }
+        mThresholds = new long[]{compress, dropLowPriority, deleteOldest, memoryOnly};
+    }
+
+    /**
+     * Get the free bytes threshold to enter the state
+     *
+     * @param state The degraded state
+     * @return The threshold, 0 for NORMAL
+     */
+    public long getThreshold(State state) {
+        return state == State.NORMAL ? 0 : mThresholds[state.ordinal() - 1];
+    }
+
+    /**
+     * Get the directory on the watched storage
+     *
+     * @return The directory
+     */
+    public File getDir() {
+        return mDir;
+    }
+
+    /**
+     * Get the source of usable space
+     *
+     * @return The source
+     */
+    public SpaceSource getSpaceSource() {
+        return mSource;
+    }
+
+    /**
+     * Add listener of state change
+     *
+     * @param listener The listener
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Remove listener of state change
+     *
+     * @param listener The listener
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Get the cached state
+     *
+     * @return The state
+     */
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * Get the cached usable bytes
+     *
+     * @return The usable bytes, Long.MAX_VALUE before first refresh
+     */
+    public long getUsableBytes() {
+        return mUsableBytes;
+    }
+
+    /**
+     * Start refreshing in background
+     *
+     * @param periodMs The refresh period in ms
+     */
+    public synchronized void start(long periodMs) {
+        if (mScheduler == null) {
+            mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "StorageWatchdog");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        if (mRefreshFuture != null) mRefreshFuture.cancel(false);
+        mRefreshFuture = mScheduler.scheduleWithFixedDelay(mRefresh, 0, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop refreshing in background
+     */
+    public synchronized void stop() {
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
+            mScheduler = null;
+            mRefreshFuture = null;
+        }
+    }
+
+    /**
+     * Ask a refresh soon, e.g. after a write failed, it doesn't block caller
+     */
+    public synchronized void requestRefresh() {
+        if (mScheduler != null) mScheduler.execute(mRefresh);
+    }
+
+    /**
+     * Read the usable space and update state now
+     *
+     * @return The new state
+     */
+    public State refresh() {
+        long usable = mSource.getUsableSpace(mDir);
+        mUsableBytes = usable;
+        State newState = toState(usable);
+        State oldState;
+        synchronized (this) {
+            oldState = mState;
+            mState = newState;
+        }
+        if (oldState != newState) {
+            for (Listener l : mListeners) {
+                l.onStateChanged(oldState, newState, usable);
+            }
+        }
+        return newState;
+    }
+
+    private State toState(long usable) {
+        long[] thresholds = mThresholds;
+        State state = State.NORMAL;
+        for (int i = 0; i < thresholds.length; i++) {
+            if (usable < thresholds[i]) state = State.values()[i + 1];
+        }
+        return state;
+    }
+}
@@ -1,22 +1,20 @@
 package com.ppcrong.loglib;
 
 import android.content.Context;
-import android.os.Environment;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import com.socks.library.KLog;
-
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 
 /**
  * Static Log Library
@@ -26,6 +24,38 @@ public class sLogLib {
     // region [External Storage]
 
     // region [Common]
+    private static LogStorage mStorage = new AndroidLogStorage();
+    private static LogDiagnostics mDiagnostics = new AndroidLogDiagnostics();
+
+    /**
+     * Set platform implementations, e.g. {@link JvmLogStorage} and {@link JvmLogDiagnostics}
+     * to run without Android
+     *
+     * @param storage     The storage
+     * @param diagnostics The diagnostics
+     */
+    public static void setPlatform(@NonNull LogStorage storage, @NonNull LogDiagnostics diagnostics) {
+        mStorage = storage;
+        mDiagnostics = diagnostics;
+    }
+
+    /**
+     * Get the storage implementation, e.g. to restore it after {@link #setPlatform}
+     *
+     * @return The storage
+     */
+    public static LogStorage getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * Get the diagnostics implementation, e.g. to restore it after {@link #setPlatform}
+     *
+     * @return The diagnostics
+     */
+    public static LogDiagnostics getDiagnostics() {
+        return mDiagnostics;
+    }
 
     /**
      * Generate a file name by current time
@@ -48,7 +78,7 @@ public class sLogLib {
         } else {
             fileName += "_" + postfix + "." + ext;
         }
-        KLog.i("fileName: " + fileName);
+        mDiagnostics.i("fileName: " + fileName);
         return fileName;
     }
 
@@ -73,7 +103,7 @@ public class sLogLib {
         } else {
             fileName += "_" + postfix + "." + ext;
         }
-        KLog.i("fileName: " + fileName);
+        mDiagnostics.i("fileName: " + fileName);
         return fileName;
     }
 
@@ -86,12 +116,12 @@ public class sLogLib {
      */
     @Deprecated
     public static File getExDir(String subDir) {
-        KLog.i("subDir: " + subDir);
+        mDiagnostics.i("subDir: " + subDir);
         // Get the subFolder of external storage.
-        File file = new File(Environment.getExternalStorageDirectory(), subDir);
+        File file = new File(mStorage.getExternalStorageDirectory(), subDir);
         if (!file.exists()) {
             if (!file.mkdirs()) {
-                KLog.e("subDir not created");
+                mDiagnostics.e("subDir not created");
             }
         }
         return file;
@@ -104,28 +134,42 @@ public class sLogLib {
      * @return The directory
      */
     public static File getExDir(Context ctx, String subDir) {
-        KLog.i("subDir: " + subDir);
+        mDiagnostics.i("subDir: " + subDir);
         // Get the subFolder of external storage.
         File file = new File(ctx.getExternalFilesDir(null), subDir);
         if (!file.exists()) {
             if (!file.mkdirs()) {
-                KLog.e("subDir not created");
+                mDiagnostics.e("subDir not created");
             }
         }
         return file;
     }
 
+    /**
+     * Set the cache of external storage state, e.g. one registered to media broadcasts, it's
+     * applied to the {@link AndroidLogStorage} in use
+     *
+     * @param cache The storage state cache
+     * @throws IllegalStateException If a storage other than AndroidLogStorage is in use
+     */
+    public static void setStorageStateCache(@NonNull StorageStateCache cache) {
+        if (!(mStorage instanceof AndroidLogStorage)) {
+            throw new IllegalStateException("Storage state cache needs AndroidLogStorage, not " +
+                    mStorage.getClass().getSimpleName());
+        }
+        ((AndroidLogStorage) mStorage).setStorageStateCache(cache);
+    }
+
     /**
      * Checks if external storage is available for read and write
      *
      * @return true is writable, false is not
      */
     public static boolean isExternalStorageWritable() {
-        String state = Environment.getExternalStorageState();
-        if (Environment.MEDIA_MOUNTED.equals(state)) {
+        if (mStorage.isWritable()) {
             return true;
         }
-        KLog.i("External Storage isn't writable");
+        mDiagnostics.i("External Storage isn't writable");
         return false;
     }
 
@@ -135,12 +179,10 @@ public class sLogLib {
      * @return true is readable, false is not
      */
     public static boolean isExternalStorageReadable() {
-        String state = Environment.getExternalStorageState();
-        if (Environment.MEDIA_MOUNTED.equals(state) ||
-                Environment.MEDIA_MOUNTED_READ_ONLY.equals(state)) {
+        if (mStorage.isReadable()) {
             return true;
         }
-        KLog.i("External Storage isn't readable");
+        mDiagnostics.i("External Storage isn't readable");
         return false;
     }
 
@@ -150,7 +192,7 @@ public class sLogLib {
      * @param dir The directory to be deleted.
      */
     public static void deleteAllFiles(@NonNull String dir) {
-        KLog.i("Directory = " + dir);
+        mDiagnostics.i("Directory = " + dir);
         File fileDir = new File(dir);
         deleteRecursive(fileDir);
     }
@@ -167,15 +209,17 @@ public class sLogLib {
                 deleteRecursive(child);
 
         boolean b = fileOrDirectory.delete();
-        KLog.i("Delete " + fileOrDirectory.getPath() + " " + (b ? "ok" : "fail"));
+        mDiagnostics.i("Delete " + fileOrDirectory.getPath() + " " + (b ? "ok" : "fail"));
+        LogHousekeeper housekeeper = mHousekeeper;
+        if (b && housekeeper != null) housekeeper.onFileDeleted(fileOrDirectory);
     }
     // endregion [Common]
 
     // region [Logging]
     private static Object mLock = new Object();
     private static File fileLog = null;
-    private static FileOutputStream mFileOutputStream = null;
-    private static OutputStreamWriter mOutputStreamWriter = null;
+    private static volatile LogTail mLogTail = null;
+    private static int mTailBufferSize = 64 * 1024;
 
     /**
      * Open/Create log file
@@ -185,29 +229,58 @@ public class sLogLib {
      * @return true is open ok, false is open fail
      */
     public static boolean openLogFile(File fileDir, String fileName) {
-        KLog.i("fileLog: " + fileDir.getPath() + File.separator + fileName);
+        return openLogFile(fileDir, fileName, 0);
+    }
+
+    /**
+     * Open/Create log file with preallocated size
+     * <p>
+     * The file is reserved with preallocateBytes up front (and extended by the same step when
+     * full) to avoid the file system growing it on every write, it's trimmed to the real size
+     * when closed. The files left padded by a crash in fileDir are trimmed by
+     * {@link #recoverLogFiles(File)} first.
+     *
+     * @param fileDir          The dir of file
+     * @param fileName         The log file name
+     * @param preallocateBytes The bytes to reserve, 0 to disable preallocation
+     * @return true is open ok, false is open fail
+     */
+    public static boolean openLogFile(File fileDir, String fileName, long preallocateBytes) {
+        mDiagnostics.i("fileLog: " + fileDir.getPath() + File.separator + fileName + ", preallocate: " + preallocateBytes);
 
         boolean bRet = false;
         if (isExternalStorageWritable()) {
+            // Files of a crashed preallocated session are still padded
+            if (preallocateBytes > 0) recoverLogFiles(fileDir);
             synchronized (mLock) {
                 // Create file
                 fileLog = new File(fileDir, fileName);
                 try {
                     if (fileLog.exists()) {
                         boolean b = fileLog.delete();
-                        KLog.i("Delete " + (b ? "ok" : "fail"));
+                        mDiagnostics.i("Delete " + (b ? "ok" : "fail"));
                     }
                     boolean b = fileLog.createNewFile();
-                    KLog.i("Create " + (b ? "ok" : "fail"));
-                    mFileOutputStream = new FileOutputStream(fileLog);
-                    mOutputStreamWriter = new OutputStreamWriter(mFileOutputStream);
+                    mDiagnostics.i("Create " + (b ? "ok" : "fail"));
+                    OutputStream out;
+                    if (preallocateBytes > 0) {
+                        out = new PreallocatedOutputStream(fileLog, preallocateBytes, mStorage);
+                    } else {
+                        out = new FileOutputStream(fileLog);
+                    }
+                    mLogTail = new LogTail(out, fileLog, mTailBufferSize);
+                    LogHousekeeper housekeeper = mHousekeeper;
+                    if (housekeeper != null) {
+                        housekeeper.protect(fileLog);
+                        housekeeper.onFileChanged(fileLog, 0, System.currentTimeMillis());
+                    }
                     bRet = true;
                 } catch (FileNotFoundException e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 } catch (IOException e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 } catch (Exception e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 }
             }
         }
@@ -215,17 +288,87 @@ public class sLogLib {
         return bRet;
     }
 
+    /**
+     * Trim the log files left preallocated by a crash to the logical end recorded for them, it's
+     * done when a log file is opened with preallocation, call it to recover a dir before reading
+     * or exporting the files. The files still written by any process are left alone.
+     *
+     * @param dir The dir of log files
+     * @return The count of recovered files
+     */
+    public static int recoverLogFiles(File dir) {
+        int count = 0;
+        for (File file : PreallocatedOutputStream.listPreallocatedFiles(dir)) {
+            try {
+                if (!PreallocatedOutputStream.trimPadding(file)) continue;
+            } catch (IOException e) {
+                mDiagnostics.e(e);
+                continue;
+            }
+            mDiagnostics.i("Recovered: " + file.getPath());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Set the size of in-memory buffer kept for tail readers, it's applied to the next opened log file
+     *
+     * @param size The buffer size in bytes
+     */
+    public static void setTailBufferSize(int size) {
+        mTailBufferSize = size;
+    }
+
+    /**
+     * Get the tail of the opened log file, to read the flushed data while it's being written
+     *
+     * @return The tail, null if no log file opened
+     */
+    public static LogTail getLogTail() {
+        return mLogTail;
+    }
+
+    /**
+     * Read the opened log file from position up to the last written record, including the data
+     * not flushed yet. It uses positional reads and doesn't take the log lock, so it's cheap to
+     * call from a live log screen while logging goes on.
+     *
+     * @param position The position to read from, e.g. the length of the last snapshot
+     * @return The data, null if no log file opened or read fails
+     */
+    public static byte[] readLogSnapshot(long position) {
+        LogTail tail = mLogTail;
+        if (tail == null) return null;
+        try {
+            return tail.readSnapshot(position);
+        } catch (IOException e) {
+            mDiagnostics.e(e);
+            return null;
+        }
+    }
+
     /**
      * Write data to log file
      *
      * @param data The data to write
      */
     public static void writeLog(String data) {
+        SharedLogFile shared = mSharedLog;
+        if (shared != null) {
+            byte[] bytes = data.getBytes();
+            try {
+                appendShared(shared, bytes, 0, bytes.length);
+            } catch (IOException e) {
+                mDiagnostics.e(e);
+            }
+            return;
+        }
         synchronized (mLock) {
             try {
-                if (mOutputStreamWriter != null) mOutputStreamWriter.write(data);
+                if (mLogTail != null) mLogTail.writeText(data);
             } catch (IOException e) {
-                KLog.e(Log.getStackTraceString(e));
+                mDiagnostics.e(e);
             }
         }
     }
@@ -236,11 +379,34 @@ public class sLogLib {
      * @param bytes The data to write
      */
     public static void writeLog(byte[] bytes) {
+        SharedLogFile shared = mSharedLog;
+        if (shared != null) {
+            try {
+                appendShared(shared, bytes, 0, bytes.length);
+            } catch (IOException e) {
+                mDiagnostics.e(e);
+            }
+            return;
+        }
         synchronized (mLock) {
             try {
-                if (mFileOutputStream != null) mFileOutputStream.write(bytes);
+                // Through the tail buffer to keep order with text
+                if (mLogTail != null) mLogTail.write(bytes, 0, bytes.length);
             } catch (IOException e) {
-                KLog.e(Log.getStackTraceString(e));
+                mDiagnostics.e(e);
+            }
+        }
+    }
+
+    /**
+     * Flush log file
+     */
+    public static void flushLogFile() {
+        synchronized (mLock) {
+            try {
+                if (mLogTail != null) mLogTail.flush();
+            } catch (IOException e) {
+                mDiagnostics.e(e);
             }
         }
     }
@@ -250,23 +416,24 @@ public class sLogLib {
      */
     public static void closeLogFile() {
         if (fileLog == null) {
-            KLog.i("fileLog is null ");
+            mDiagnostics.i("fileLog is null ");
             return;
         }
-        KLog.i("fileLog: " + fileLog.getPath());
+        mDiagnostics.i("fileLog: " + fileLog.getPath());
         synchronized (mLock) {
-            if (mOutputStreamWriter != null) {
+            if (mLogTail != null) {
                 try {
-                    mOutputStreamWriter.flush();
+                    mLogTail.flush();
                 } catch (IOException e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 } finally {
                     try {
-                        mOutputStreamWriter.close();
+                        mLogTail.close();
                     } catch (IOException e) {
-                        KLog.e(Log.getStackTraceString(e));
+                        mDiagnostics.e(e);
                     } finally {
-                        mOutputStreamWriter = null;
+                        mLogTail = null;
+                        onLogFileClosed(fileLog);
                         fileLog = null;
                     }
                 }
@@ -281,24 +448,25 @@ public class sLogLib {
      */
     public static String closeLogFileReturnPath() {
         if (fileLog == null) {
-            KLog.i("fileLog is null ");
+            mDiagnostics.i("fileLog is null ");
             return "";
         }
         String path = fileLog.getPath();
-        KLog.i("fileLog: " + path);
+        mDiagnostics.i("fileLog: " + path);
         synchronized (mLock) {
-            if (mOutputStreamWriter != null) {
+            if (mLogTail != null) {
                 try {
-                    mOutputStreamWriter.flush();
+                    mLogTail.flush();
                 } catch (IOException e) {
-                    KLog.e(Log.getStackTraceString(e));
+                    mDiagnostics.e(e);
                 } finally {
                     try {
-                        mOutputStreamWriter.close();
+                        mLogTail.close();
                     } catch (IOException e) {
-                        KLog.e(Log.getStackTraceString(e));
+                        mDiagnostics.e(e);
                     } finally {
-                        mOutputStreamWriter = null;
+                        mLogTail = null;
+                        onLogFileClosed(fileLog);
                         fileLog = null;
                     }
                 }
@@ -308,6 +476,191 @@ public class sLogLib {
     }
     // endregion [Logging]
 
+    // region [Hex Dump]
+    private static final HexDumper mHexDumper = new HexDumper();
+
+    /**
+     * Set the format of hex dump
+     *
+     * @param style     The style
+     * @param timestamp true to prefix lines with timestamp
+     */
+    public static void setHexDumpFormat(@NonNull HexDumper.Style style, boolean timestamp) {
+        synchronized (mLock) {
+            mHexDumper.setStyle(style);
+            mHexDumper.setTimestamp(timestamp);
+        }
+    }
+
+    /**
+     * Write byte array as readable hex text to log file, instead of the raw bytes of
+     * {@link #writeLog(byte[])}
+     *
+     * @param tag   The tag, null for no tag
+     * @param bytes The data to dump
+     * @param off   The offset
+     * @param len   The length
+     */
+    public static void writeHexDump(String tag, @NonNull byte[] bytes, int off, int len) {
+        synchronized (mLock) {
+            writeHexDumpLocked(mHexDumper.dump(tag, bytes, off, len));
+        }
+    }
+
+    /**
+     * Write the remaining bytes of buffer as readable hex text to log file, its position isn't changed
+     *
+     * @param tag    The tag, null for no tag
+     * @param buffer The data to dump
+     */
+    public static void writeHexDump(String tag, @NonNull ByteBuffer buffer) {
+        synchronized (mLock) {
+            writeHexDumpLocked(mHexDumper.dump(tag, buffer));
+        }
+    }
+
+    private static void writeHexDumpLocked(int len) {
+        SharedLogFile shared = mSharedLog;
+        try {
+            if (shared != null) {
+                appendShared(shared, mHexDumper.getBuffer(), 0, len);
+            } else if (mLogTail != null) {
+                mLogTail.write(mHexDumper.getBuffer(), 0, len);
+            }
+        } catch (IOException e) {
+            mDiagnostics.e(e);
+        }
+    }
+    // endregion [Hex Dump]
+
+    // region [Shared Log]
+    private static volatile SharedLogFile mSharedLog = null;
+
+    /**
+     * Open/Create log file shared with other processes, e.g. the app and its :service process
+     * logging into the same session file. While it's opened writeLog calls go to it instead of
+     * the log file. It's not truncated when opened, delete it before the session starts.
+     * Read it by {@link SharedLogFile#copyTo(File, OutputStream)}.
+     *
+     * @param fileDir  The dir of file
+     * @param fileName The log file name
+     * @param capacity The bytes for records when the file is created, the full file drops records
+     * @return true is open ok, false is open fail
+     */
+    public static boolean openSharedLogFile(File fileDir, String fileName, int capacity) {
+        mDiagnostics.i("sharedLog: " + fileDir.getPath() + File.separator + fileName + ", capacity: " + capacity);
+
+        boolean bRet = false;
+        if (isExternalStorageWritable()) {
+            synchronized (mLock) {
+                try {
+                    SharedLogFile old = mSharedLog;
+                    mSharedLog = new SharedLogFile(new File(fileDir, fileName), capacity);
+                    if (old != null) {
+                        old.close();
+                        onLogFileClosed(old.getFile());
+                    }
+                    LogHousekeeper housekeeper = mHousekeeper;
+                    if (housekeeper != null) {
+                        housekeeper.protect(mSharedLog.getFile());
+                        housekeeper.onFileChanged(mSharedLog.getFile());
+                    }
+                    bRet = true;
+                } catch (IOException e) {
+                    mDiagnostics.e(e);
+                } catch (Exception e) {
+                    mDiagnostics.e(e);
+                }
+            }
+        }
+
+        return bRet;
+    }
+
+    /**
+     * Get the opened shared log file
+     *
+     * @return The shared log file, null if not opened
+     */
+    public static SharedLogFile getSharedLogFile() {
+        return mSharedLog;
+    }
+
+    /**
+     * Close shared log file and return path
+     *
+     * @return File path, empty if not opened
+     */
+    public static String closeSharedLogFile() {
+        synchronized (mLock) {
+            SharedLogFile shared = mSharedLog;
+            if (shared == null) {
+                mDiagnostics.i("sharedLog is null ");
+                return "";
+            }
+            mSharedLog = null;
+            try {
+                shared.close();
+            } catch (IOException e) {
+                mDiagnostics.e(e);
+            }
+            onLogFileClosed(shared.getFile());
+            return shared.getFile().getPath();
+        }
+    }
+
+    private static void appendShared(SharedLogFile shared, byte[] bytes, int off, int len) throws IOException {
+        if (!shared.append(bytes, off, len) && shared.getDropped() == 1) {
+            mDiagnostics.e("sharedLog is full, records are dropped");
+        }
+    }
+    // endregion [Shared Log]
+
+    // region [Housekeeping]
+    private static volatile LogHousekeeper mHousekeeper = null;
+
+    /**
+     * Set the housekeeper, it's told about the log files written and deleted here, and the active
+     * log file and shared log file are protected from its retention
+     *
+     * @param housekeeper The housekeeper, null to disable
+     */
+    public static void setHousekeeper(LogHousekeeper housekeeper) {
+        synchronized (mLock) {
+            SharedLogFile shared = mSharedLog;
+            File[] active = {fileLog, shared != null ? shared.getFile() : null};
+            for (File file : active) {
+                if (file == null) continue;
+                if (mHousekeeper != null) mHousekeeper.unprotect(file);
+                if (housekeeper != null) {
+                    housekeeper.protect(file);
+                    housekeeper.onFileChanged(file);
+                }
+            }
+            mHousekeeper = housekeeper;
+        }
+    }
+
+    /**
+     * Get the housekeeper
+     *
+     * @return The housekeeper, null if not set
+     */
+    public static LogHousekeeper getHousekeeper() {
+        return mHousekeeper;
+    }
+
+    /**
+     * Update housekeeper with the closed log file, must hold mLock
+     */
+    private static void onLogFileClosed(File file) {
+        LogHousekeeper housekeeper = mHousekeeper;
+        if (housekeeper == null || file == null) return;
+        housekeeper.unprotect(file);
+        housekeeper.onFileChanged(file);
+    }
+    // endregion [Housekeeping]
+
     // region [Save/Read File]
 
     /**
@@ -318,7 +671,7 @@ public class sLogLib {
      * @param data     The data to save
      */
     synchronized public static void saveFile(File fileDir, String fileName, String data) {
-        KLog.i("file: " + fileDir.getPath() + File.separator + fileName);
+        mDiagnostics.i("file: " + fileDir.getPath() + File.separator + fileName);
         if (isExternalStorageWritable()) {
             writeToFile(fileDir, fileName, data);
         }
@@ -332,21 +685,21 @@ public class sLogLib {
      * @param data     The data to write
      */
     synchronized private static void writeToFile(File fileDir, String fileName, String data) {
-        KLog.i("file: " + fileDir.getPath() + File.separator + fileName);
+        mDiagnostics.i("file: " + fileDir.getPath() + File.separator + fileName);
 
         // Create file
         File fileWrite = new File(fileDir, fileName);
         try {
             if (fileWrite.exists()) {
                 boolean b = fileWrite.delete();
-                KLog.i("Delete " + (b ? "ok" : "fail"));
+                mDiagnostics.i("Delete " + (b ? "ok" : "fail"));
             }
             boolean b = fileWrite.createNewFile();
-            KLog.i("Create " + (b ? "ok" : "fail"));
+            mDiagnostics.i("Create " + (b ? "ok" : "fail"));
         } catch (IOException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (Exception e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         }
 
         // Write data to file
@@ -358,16 +711,16 @@ public class sLogLib {
                 s.flush();
             }
         } catch (FileNotFoundException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (IOException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (Exception e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } finally {
             try {
                 if (s != null) s.close();
             } catch (Exception e) {
-                KLog.e(Log.getStackTraceString(e));
+                mDiagnostics.e(e);
             }
         }
     }
@@ -380,7 +733,7 @@ public class sLogLib {
      * @return The read data
      */
     synchronized public static String readFile(File fileDir, String fileName) {
-        KLog.i("file: " + fileDir.getPath() + File.separator + fileName);
+        mDiagnostics.i("file: " + fileDir.getPath() + File.separator + fileName);
         if (isExternalStorageReadable()) {
             return readFromFile(fileDir, fileName);
         }
@@ -388,12 +741,12 @@ public class sLogLib {
     }
 
     synchronized private static String readFromFile(File fileDir, String fileName) {
-        KLog.i("file: " + fileDir.getPath() + File.separator + fileName);
+        mDiagnostics.i("file: " + fileDir.getPath() + File.separator + fileName);
 
         // The read file
         File fileRead = new File(fileDir, fileName);
         if (!fileRead.exists()) {
-            KLog.i("File doesn't exist");
+            mDiagnostics.i("File doesn't exist");
             return "File doesn't exist";
         }
 
@@ -409,20 +762,20 @@ public class sLogLib {
                 }
             }
         } catch (FileNotFoundException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (IOException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (Exception e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } finally {
             try {
                 if (s != null) s.close();
             } catch (Exception e) {
-                KLog.e(Log.getStackTraceString(e));
+                mDiagnostics.e(e);
             }
         }
 
-        KLog.i("Read from file: " + sb.toString());
+        mDiagnostics.i("Read from file: " + sb.toString());
         return sb.toString();
     }
 
@@ -434,7 +787,7 @@ public class sLogLib {
      */
     synchronized public static byte[] readFile(String fullFilePath) {
 
-        KLog.i("file: " + fullFilePath);
+        mDiagnostics.i("file: " + fullFilePath);
 
         if (isExternalStorageReadable()) {
             return readFromFile(fullFilePath);
@@ -444,13 +797,13 @@ public class sLogLib {
 
     synchronized private static byte[] readFromFile(String fullFilePath) {
 
-        KLog.i("file: " + fullFilePath);
+        mDiagnostics.i("file: " + fullFilePath);
         byte[] bytes = null;
 
         // The read file
         File fileRead = new File(fullFilePath);
         if (!fileRead.exists()) {
-            KLog.i("File doesn't exist");
+            mDiagnostics.i("File doesn't exist");
             return bytes;
         }
 
@@ -463,16 +816,16 @@ public class sLogLib {
                 s.read(bytes);
             }
         } catch (FileNotFoundException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (IOException e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } catch (Exception e) {
-            KLog.e(Log.getStackTraceString(e));
+            mDiagnostics.e(e);
         } finally {
             try {
                 if (s != null) s.close();
             } catch (Exception e) {
-                KLog.e(Log.getStackTraceString(e));
+                mDiagnostics.e(e);
             }
         }
 
@@ -480,5 +833,149 @@ public class sLogLib {
     }
     // endregion [Save/Read File]
 
+    // region [Async]
+    private static IoScheduler mIoScheduler = new IoScheduler(IoScheduler.CALLER_THREAD);
+
+    /**
+     * Set the scheduler to run async file operations, the default one runs on caller thread
+     *
+     * @param scheduler The I/O scheduler
+     */
+    public static void setIoScheduler(@NonNull IoScheduler scheduler) {
+        mIoScheduler = scheduler;
+    }
+
+    /**
+     * Get the scheduler to run async file operations
+     *
+     * @return The I/O scheduler
+     */
+    public static IoScheduler getIoScheduler() {
+        return mIoScheduler;
+    }
+
+    /**
+     * Open/Create log file on I/O scheduler
+     *
+     * @param fileDir  The dir of file
+     * @param fileName The log file name
+     * @param callback The completion callback, could be null
+     * @return The task, the result is true if open ok
+     */
+    public static IoScheduler.IoTask<Boolean> openLogFileAsync(final File fileDir, final String fileName,
+                                                               IoScheduler.Callback<Boolean> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.OPEN_CLOSE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return openLogFile(fileDir, fileName);
+            }
+        }, callback);
+    }
+
+    /**
+     * Flush log file on I/O scheduler
+     *
+     * @param callback The completion callback, could be null
+     * @return The task
+     */
+    public static IoScheduler.IoTask<Void> flushLogFileAsync(IoScheduler.Callback<Void> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.FLUSH, new Callable<Void>() {
+            @Override
+            public Void call() {
+                flushLogFile();
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Close log file on I/O scheduler
+     *
+     * @param callback The completion callback, could be null
+     * @return The task, the result is the closed file path
+     */
+    public static IoScheduler.IoTask<String> closeLogFileAsync(IoScheduler.Callback<String> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.OPEN_CLOSE, new Callable<String>() {
+            @Override
+            public String call() {
+                return closeLogFileReturnPath();
+            }
+        }, callback);
+    }
+
+    /**
+     * Save data to file on I/O scheduler
+     *
+     * @param fileDir  The dir to save
+     * @param fileName The file to save
+     * @param data     The data to save
+     * @param callback The completion callback, could be null
+     * @return The task
+     */
+    public static IoScheduler.IoTask<Void> saveFileAsync(final File fileDir, final String fileName, final String data,
+                                                         IoScheduler.Callback<Void> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.WRITE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                saveFile(fileDir, fileName, data);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Read data from file on I/O scheduler
+     *
+     * @param fileDir  The dir to read
+     * @param fileName The file to read
+     * @param callback The completion callback, could be null
+     * @return The task, the result is the read data
+     */
+    public static IoScheduler.IoTask<String> readFileAsync(final File fileDir, final String fileName,
+                                                           IoScheduler.Callback<String> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.READ, new Callable<String>() {
+            @Override
+            public String call() {
+                return readFile(fileDir, fileName);
+            }
+        }, callback);
+    }
+
+    /**
+     * Read data from file on I/O scheduler
+     *
+     * @param fullFilePath The full path of the file to read
+     * @param callback     The completion callback, could be null
+     * @return The task, the result is the read byte array
+     */
+    public static IoScheduler.IoTask<byte[]> readFileAsync(final String fullFilePath,
+                                                           IoScheduler.Callback<byte[]> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.READ, new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return readFile(fullFilePath);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete all files in specific folder on I/O scheduler
+     *
+     * @param dir      The directory to be deleted.
+     * @param callback The completion callback, could be null
+     * @return The task
+     */
+    public static IoScheduler.IoTask<Void> deleteAllFilesAsync(@NonNull final String dir,
+                                                               IoScheduler.Callback<Void> callback) {
+        return mIoScheduler.submit(IoScheduler.Priority.DELETE, new Callable<Void>() {
+            @Override
+            public Void call() {
+                deleteAllFiles(dir);
+                return null;
+            }
+        }, callback);
+    }
+    // endregion [Async]
+
     // endregion [External Storage]
 }
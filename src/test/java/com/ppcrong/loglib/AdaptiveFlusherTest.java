@@ -0,0 +1,59 @@
+package com.ppcrong.loglib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Adaptive flush decisions with simulated time
+ */
+public class AdaptiveFlusherTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void sparseTraffic_flushesNow() {
+        LogMetrics metrics = new LogMetrics();
+        AdaptiveFlusher flusher = new AdaptiveFlusher(100, 64 * 1024, metrics);
+        long now = 1;
+        for (int i = 0; i < 10; i++) {
+            now += 500 * MS;
+            assertTrue(flusher.onWrite(100, now));
+            flusher.onFlush(MS);
+        }
+        assertEquals(AdaptiveFlusher.Decision.FLUSH_NOW, metrics.getFlushDecision());
+        assertEquals(10, metrics.getFlushCount());
+    }
+
+    @Test
+    public void burst_batchesUntilMaxBytes() {
+        LogMetrics metrics = new LogMetrics();
+        AdaptiveFlusher flusher = new AdaptiveFlusher(1000, 10 * 1000, metrics);
+        long now = 1;
+        int flushes = 0;
+        for (int i = 0; i < 1000; i++) {
+            now += 10000;
+            if (flusher.onWrite(100, now)) {
+                flusher.onFlush(100 * 1000);
+                flushes++;
+            }
+        }
+        assertEquals(AdaptiveFlusher.Decision.BATCH, metrics.getFlushDecision());
+        // Every 100 writes fill a batch, plus the first writes before the rate is known
+        assertTrue("flushes: " + flushes, flushes <= 12);
+        assertTrue(flusher.getFlushDelayNanos(now) <= 1000 * MS);
+    }
+
+    @Test
+    public void batch_boundedByMaxLatency() {
+        AdaptiveFlusher flusher = new AdaptiveFlusher(10, 1024 * 1024, null);
+        long now = 1;
+        for (int i = 0; i < 5; i++) {
+            now += 10000;
+            flusher.onWrite(10, now);
+        }
+        assertFalse(flusher.onWrite(10, now + 10000));
+        assertTrue(flusher.getFlushDelayNanos(now + 10000) <= 10 * MS);
+        assertTrue(flusher.onWrite(10, now + 11 * MS));
+    }
+}
@@ -0,0 +1,33 @@
+package com.ppcrong.loglib;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Gate of the benchmark tests, they're skipped unless run with -Dloglib.benchmark=true
+ */
+final class Benchmarks {
+
+    /**
+     * The system property enables benchmarks
+     */
+    static final String PROPERTY = "loglib.benchmark";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Check whether benchmarks are enabled
+     *
+     * @return true is enabled
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Skip the calling test unless benchmarks are enabled
+     */
+    static void assumeEnabled() {
+        assumeTrue("Benchmark, run with -D" + PROPERTY + "=true", isEnabled());
+    }
+}
@@ -0,0 +1,129 @@
+package com.ppcrong.loglib;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encrypted log file round trip, tamper detection and throughput budget, the throughput benchmark
+ * runs only with -Dloglib.benchmark=true
+ */
+public class EncryptedLogTest {
+
+    /**
+     * Throughput budget: the encrypted writer is at most this many times slower than plain writer
+     */
+    private static final double THROUGHPUT_BUDGET = 8;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mFile;
+    private LogKeyProvider mKeyProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = mTempFolder.newFile("encrypted.log");
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        final SecretKey key = generator.generateKey();
+        mKeyProvider = new LogKeyProvider() {
+            @Override
+            public SecretKey getKey() {
+                return key;
+            }
+        };
+    }
+
+    @Test
+    public void roundTrip_streamAndRandomAccess() throws IOException {
+        byte[] data = new byte[100 * 1000];
+        new Random(1).nextBytes(data);
+        EncryptedLogOutputStream out = new EncryptedLogOutputStream(mFile, mKeyProvider, 4096);
+        for (int off = 0; off < data.length; off += 700) {
+            out.write(data, off, Math.min(700, data.length - off));
+            // Flushed partial blocks are sealed again when they grow
+            if (off % 7000 == 0) out.flush();
+        }
+        out.close();
+
+        EncryptedLogReader reader = new EncryptedLogReader(mFile, mKeyProvider);
+        assertTrue(reader.isComplete());
+        assertEquals((data.length + 4095) / 4096, reader.getBlockCount());
+        assertArrayEquals(Arrays.copyOfRange(data, 4096 * 5, 4096 * 6), reader.readBlock(5));
+        assertArrayEquals(data, TestFiles.readAll(reader.openStream()));
+        reader.close();
+    }
+
+    @Test
+    public void flushedBeforeClose_readableButIncomplete() throws IOException {
+        EncryptedLogOutputStream out = new EncryptedLogOutputStream(mFile, mKeyProvider, 4096);
+        out.write("hello".getBytes());
+        out.flush();
+        EncryptedLogReader reader = new EncryptedLogReader(mFile, mKeyProvider);
+        assertFalse(reader.isComplete());
+        assertEquals("hello", new String(TestFiles.readAll(reader.openStream())));
+        reader.close();
+        out.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void tamperedBlock_rejected() throws IOException {
+        EncryptedLogOutputStream out = new EncryptedLogOutputStream(mFile, mKeyProvider, 1024);
+        out.write(new byte[4096]);
+        out.close();
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek(EncryptedLogOutputStream.slotOffset(1024, 1) + EncryptedLogOutputStream.SLOT_HEADER_SIZE + 10);
+        raf.write(1);
+        raf.close();
+        EncryptedLogReader reader = new EncryptedLogReader(mFile, mKeyProvider);
+        try {
+            reader.readBlock(1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void throughput_withinBudget() throws IOException {
+        Benchmarks.assumeEnabled();
+        byte[] record = new byte[200];
+        Arrays.fill(record, (byte) 'x');
+        int count = 100000;
+        // Best of rounds, the first ones warm up JIT of cipher
+        long plain = Long.MAX_VALUE;
+        long encrypted = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            plain = Math.min(plain, write(new FileOutputStream(mFile), record, count));
+            encrypted = Math.min(encrypted, write(new EncryptedLogOutputStream(mFile, mKeyProvider,
+                    EncryptedLogOutputStream.DEFAULT_BLOCK_SIZE), record, count));
+        }
+        double mb = (double) record.length * count / 1e6;
+        System.out.println(String.format("plain: %.1f MB/s, encrypted: %.1f MB/s",
+                mb / (plain / 1e9), mb / (encrypted / 1e9)));
+        assertTrue("Encrypted writer is over budget", encrypted <= plain * THROUGHPUT_BUDGET);
+    }
+
+    private static long write(OutputStream stream, byte[] record, int count) throws IOException {
+        // Both writers are behind a LogTail like LogLib puts them
+        OutputStream out = new LogTail(stream, null, 64 * 1024);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) out.write(record);
+        out.close();
+        return System.nanoTime() - start;
+    }
+}
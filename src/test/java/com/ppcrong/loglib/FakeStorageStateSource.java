@@ -0,0 +1,53 @@
+package com.ppcrong.loglib;
+
+import android.os.Environment;
+
+import java.io.File;
+
+/**
+ * JVM test double of storage state and usable space sources, they're set by test
+ */
+public class FakeStorageStateSource implements StorageStateCache.Source, StorageWatchdog.SpaceSource {
+
+    private volatile String mState = Environment.MEDIA_MOUNTED;
+    private volatile long mUsableSpace = Long.MAX_VALUE;
+    private volatile int mQueryCount = 0;
+
+    /**
+     * Set the state returned by next query
+     *
+     * @param state The state, e.g. {@link Environment#MEDIA_MOUNTED}
+     */
+    public void setState(String state) {
+        mState = state;
+    }
+
+    /**
+     * Set the usable space returned by next query
+     *
+     * @param bytes The usable bytes
+     */
+    public void setUsableSpace(long bytes) {
+        mUsableSpace = bytes;
+    }
+
+    /**
+     * Get how many times the state is queried
+     *
+     * @return The query count
+     */
+    public int getQueryCount() {
+        return mQueryCount;
+    }
+
+    @Override
+    public String getState() {
+        mQueryCount++;
+        return mState;
+    }
+
+    @Override
+    public long getUsableSpace(File dir) {
+        return mUsableSpace;
+    }
+}
@@ -0,0 +1,136 @@
+package com.ppcrong.loglib;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hex dump of byte payloads
+ */
+public class HexDumperTest {
+
+    /**
+     * The table dump must be at least this many times faster than String.format
+     */
+    private static final int SPEEDUP_BUDGET = 5;
+    private static final int PACKETS = 20000;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    @Test
+    public void hex_oneLine() {
+        HexDumper dumper = new HexDumper();
+        dumper.setTimestamp(false);
+        byte[] data = {0x00, 0x1F, (byte) 0xA5, (byte) 0xFF};
+        assertEquals("BLE: 00 1f a5 ff\n", text(dumper, dumper.dump("BLE", data, 0, data.length)));
+        assertEquals("1f a5\n", text(dumper, dumper.dump(null, data, 1, 2)));
+        assertEquals("\n", text(dumper, dumper.dump(null, data, 0, 0)));
+    }
+
+    @Test
+    public void hexdump_linesWithAscii() {
+        HexDumper dumper = new HexDumper();
+        dumper.setTimestamp(false);
+        dumper.setStyle(HexDumper.Style.HEXDUMP);
+        byte[] data = "0123456789abcdefXYZ\n".getBytes();
+        assertEquals(
+                "00000000  30 31 32 33 34 35 36 37  38 39 61 62 63 64 65 66  |0123456789abcdef|\n" +
+                "00000010  58 59 5a 0a                                       |XYZ.|\n",
+                text(dumper, dumper.dump(null, data, 0, data.length)));
+    }
+
+    @Test
+    public void byteBuffer_directAndHeapSlices() {
+        HexDumper dumper = new HexDumper();
+        dumper.setTimestamp(false);
+        ByteBuffer direct = ByteBuffer.allocateDirect(8);
+        direct.put(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}).flip();
+        direct.position(2).limit(5);
+        assertEquals("03 04 05\n", text(dumper, dumper.dump(null, direct)));
+        assertEquals(2, direct.position());
+        ByteBuffer heap = ByteBuffer.wrap(new byte[]{9, 1, 2, 3, 4}, 1, 3).slice();
+        assertEquals("01 02 03\n", text(dumper, dumper.dump(null, heap)));
+    }
+
+    @Test
+    public void timestampAndTag_prefixEveryLine() {
+        HexDumper dumper = new HexDumper();
+        dumper.setStyle(HexDumper.Style.HEXDUMP);
+        String[] lines = text(dumper, dumper.dump("UART", new byte[20], 0, 20)).split("\n");
+        assertEquals(2, lines.length);
+        for (String line : lines) {
+            assertTrue(line, line.matches("\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3} UART: 000000[01]0  00 .*"));
+        }
+    }
+
+    @Test
+    public void logLib_dumpKeepsOrderWithText() throws IOException {
+        File dir = mTempFolder.getRoot();
+        LogLib logLib = new LogLib(new JvmLogStorage(dir), new JvmLogDiagnostics());
+        logLib.setHexDumpFormat(HexDumper.Style.HEX, false);
+        assertTrue(logLib.openLogFile(dir, "dump.log"));
+        logLib.writeLog("rx\n");
+        logLib.writeHexDump("BLE", ByteBuffer.wrap(new byte[]{0x0A, 0x0B}));
+        logLib.writeLog("done\n");
+        assertEquals("rx\nBLE: 0a 0b\ndone\n", new String(logLib.readLogSnapshot(0)));
+        logLib.closeLogFile();
+    }
+
+    @Test
+    public void dump_matchesStringFormat() {
+        HexDumper dumper = new HexDumper();
+        dumper.setTimestamp(false);
+        byte[] packet = packet();
+        assertEquals(format(packet), text(dumper, dumper.dump(null, packet, 0, packet.length)));
+    }
+
+    @Test
+    public void throughput_fasterThanStringFormat() {
+        Benchmarks.assumeEnabled();
+        byte[] packet = packet();
+        HexDumper dumper = new HexDumper();
+        dumper.setTimestamp(false);
+
+        long table = Long.MAX_VALUE;
+        long formatted = Long.MAX_VALUE;
+        long sink = 0;
+        // Best of rounds, to measure after JIT warm-up
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < PACKETS; i++) sink += dumper.dump(null, packet, 0, packet.length);
+            table = Math.min(table, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int i = 0; i < PACKETS; i++) sink += format(packet).length();
+            formatted = Math.min(formatted, System.nanoTime() - start);
+        }
+        System.out.println(String.format("hex dump of %d-byte packets, table: %d ns, String.format: %d ns (%d)",
+                packet.length, table / PACKETS, formatted / PACKETS, sink));
+        assertTrue("table: " + table + " ns, String.format: " + formatted + " ns", table * SPEEDUP_BUDGET < formatted);
+    }
+
+    private static byte[] packet() {
+        byte[] packet = new byte[64];
+        for (int i = 0; i < packet.length; i++) packet[i] = (byte) (i * 7);
+        return packet;
+    }
+
+    private static String format(byte[] data) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < data.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(String.format("%02x", data[i]));
+        }
+        return sb.append('\n').toString();
+    }
+
+    private static String text(HexDumper dumper, int len) {
+        return new String(dumper.getBuffer(), 0, len);
+    }
+}
@@ -0,0 +1,249 @@
+package com.ppcrong.loglib;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * I/O scheduler ordering, async file operations and callback delivery
+ */
+public class IoSchedulerTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    /**
+     * Executor holds the drain steps until the test runs them
+     */
+    private static class ManualExecutor implements Executor {
+
+        private final List<Runnable> mSteps = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mSteps.add(command);
+        }
+
+        void runAll() {
+            for (Runnable step : mSteps) step.run();
+            mSteps.clear();
+        }
+    }
+
+    @Test
+    public void submit_runsByPriorityThenFifo() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        IoScheduler scheduler = new IoScheduler(executor);
+        final List<String> order = new ArrayList<>();
+        IoScheduler.Priority[] priorities = {
+                IoScheduler.Priority.DELETE,
+                IoScheduler.Priority.READ,
+                IoScheduler.Priority.WRITE,
+                IoScheduler.Priority.FLUSH,
+                IoScheduler.Priority.OPEN_CLOSE,
+                IoScheduler.Priority.FLUSH
+        };
+        for (int i = 0; i < priorities.length; i++) {
+            final String name = priorities[i] + "#" + i;
+            scheduler.submit(priorities[i], new Callable<Void>() {
+                @Override
+                public Void call() {
+                    order.add(name);
+                    return null;
+                }
+            });
+        }
+        assertEquals(priorities.length, scheduler.getPendingCount());
+        executor.runAll();
+        assertEquals(0, scheduler.getPendingCount());
+        String[] expected = {"FLUSH#3", "FLUSH#5", "WRITE#2", "OPEN_CLOSE#4", "READ#1", "DELETE#0"};
+        assertArrayEquals(expected, order.toArray());
+    }
+
+    @Test
+    public void saveAndReadFileAsync() throws Exception {
+        File dir = mTempFolder.getRoot();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            LogLib logLib = new LogLib(new JvmLogStorage(dir), new JvmLogDiagnostics());
+            logLib.setIoScheduler(new IoScheduler(pool));
+            final AtomicReference<String> read = new AtomicReference<>();
+            logLib.saveFileAsync(dir, "async.txt", "saved on pool", null).get(5, TimeUnit.SECONDS);
+            IoScheduler.IoTask<String> task = logLib.readFileAsync(dir, "async.txt", new IoScheduler.Callback<String>() {
+                @Override
+                public void onComplete(String result, Throwable error) {
+                    assertNull(error);
+                    read.set(result);
+                }
+            });
+            assertEquals("saved on pool", task.get(5, TimeUnit.SECONDS));
+            byte[] bytes = logLib.readFileAsync(new File(dir, "async.txt").getPath(), null).get(5, TimeUnit.SECONDS);
+            assertEquals("saved on pool", new String(bytes));
+            // The callback runs in done(), before get() returns
+            assertEquals("saved on pool", read.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void callback_deliversResultOrCause() throws Exception {
+        IoScheduler scheduler = new IoScheduler(IoScheduler.CALLER_THREAD);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        scheduler.submit(IoScheduler.Priority.READ, new Callable<String>() {
+            @Override
+            public String call() {
+                return "ok";
+            }
+        }, new IoScheduler.Callback<String>() {
+            @Override
+            public void onComplete(String r, Throwable e) {
+                result.set(r);
+                error.set(e);
+            }
+        });
+        assertEquals("ok", result.get());
+        assertNull(error.get());
+
+        final IOException failure = new IOException("disk gone");
+        IoScheduler.IoTask<String> failed = scheduler.submit(IoScheduler.Priority.READ, new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                throw failure;
+            }
+        }, new IoScheduler.Callback<String>() {
+            @Override
+            public void onComplete(String r, Throwable e) {
+                result.set(r);
+                error.set(e);
+            }
+        });
+        assertNull(result.get());
+        assertSame(failure, error.get());
+        try {
+            failed.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void callback_throwingOnSuccessIsCalledOnceAndReported() {
+        final AtomicReference<Throwable> reported = new AtomicReference<>();
+        IoScheduler scheduler = new IoScheduler(IoScheduler.CALLER_THREAD, new LogDiagnostics() {
+            @Override
+            public void i(String msg) {
+            }
+
+            @Override
+            public void e(String msg) {
+            }
+
+            @Override
+            public void e(Throwable t) {
+                reported.set(t);
+            }
+        });
+        final AtomicInteger calls = new AtomicInteger();
+        final IllegalStateException bug = new IllegalStateException("callback bug");
+        // The callback error doesn't escape onto the executor thread, here the caller thread
+        scheduler.submit(IoScheduler.Priority.WRITE, new Callable<String>() {
+            @Override
+            public String call() {
+                return "ok";
+            }
+        }, new IoScheduler.Callback<String>() {
+            @Override
+            public void onComplete(String r, Throwable e) {
+                calls.incrementAndGet();
+                throw bug;
+            }
+        });
+        assertEquals(1, calls.get());
+        assertSame(bug, reported.get());
+    }
+
+    @Test
+    public void rejectedByExecutor_failsTask() {
+        IoScheduler scheduler = new IoScheduler(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new IllegalStateException("shut down");
+            }
+        });
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        IoScheduler.IoTask<Void> task = scheduler.submit(IoScheduler.Priority.FLUSH, new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        }, new IoScheduler.Callback<Void>() {
+            @Override
+            public void onComplete(Void r, Throwable e) {
+                error.set(e);
+            }
+        });
+        assertTrue(task.isDone());
+        assertTrue(error.get() instanceof IllegalStateException);
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void rejectedAfterTaskTaken_failsOrphanedTask() throws Exception {
+        final List<Runnable> steps = new ArrayList<>();
+        final AtomicBoolean reject = new AtomicBoolean(false);
+        IoScheduler scheduler = new IoScheduler(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (!reject.get()) {
+                    steps.add(command);
+                    return;
+                }
+                // The step of the earlier submit runs first and takes the new flush task
+                steps.remove(0).run();
+                throw new IllegalStateException("shut down");
+            }
+        });
+        IoScheduler.IoTask<String> delete = scheduler.submit(IoScheduler.Priority.DELETE, new Callable<String>() {
+            @Override
+            public String call() {
+                return "delete";
+            }
+        });
+        reject.set(true);
+        IoScheduler.IoTask<String> flush = scheduler.submit(IoScheduler.Priority.FLUSH, new Callable<String>() {
+            @Override
+            public String call() {
+                return "flush";
+            }
+        });
+        assertEquals("flush", flush.get());
+        // The delete task lost its drain step, it must not hang
+        assertTrue(delete.isDone());
+        try {
+            delete.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(0, scheduler.getPendingCount());
+    }
+}
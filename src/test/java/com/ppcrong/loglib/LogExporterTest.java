@@ -0,0 +1,155 @@
+package com.ppcrong.loglib;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Export log files into archive
+ */
+public class LogExporterTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+    private List<File> mFiles;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mTempFolder.getRoot();
+        Random random = new Random(1);
+        int[] sizes = {0, 1, 511, 512, 100 * 1024, 300 * 1024};
+        for (int i = 0; i < sizes.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < sizes[i]) sb.append("line ").append(random.nextInt(1000)).append('\n');
+            FileOutputStream out = new FileOutputStream(new File(mDir, "log" + i + ".txt"));
+            out.write(sb.substring(0, sizes[i]).getBytes());
+            out.close();
+            assertTrue(new File(mDir, "log" + i + ".txt").setLastModified(1500000000000L + i * 1000L));
+        }
+        mFiles = LogExporter.selectFiles(mDir, 0, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void selectFiles_byTimeRange() {
+        List<File> files = LogExporter.selectFiles(mDir, 1500000001000L, 1500000003000L);
+        assertEquals(2, files.size());
+        assertEquals("log1.txt", files.get(0).getName());
+        assertEquals("log2.txt", files.get(1).getName());
+    }
+
+    @Test
+    public void zip_readableAndResumable() throws IOException {
+        LogExporter exporter = new LogExporter(LogExporter.Format.ZIP);
+        exporter.setThreads(3);
+        exporter.setQueueChunks(1);
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        long total = exporter.export(mFiles, full, 0);
+        assertEquals(full.size(), total);
+
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(full.toByteArray()));
+        ZipEntry entry;
+        int count = 0;
+        while ((entry = zip.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = zip.read(buf)) != -1) content.write(buf, 0, n);
+            assertArrayEquals(TestFiles.readAll(new File(mDir, entry.getName())), content.toByteArray());
+            count++;
+        }
+        assertEquals(mFiles.size(), count);
+
+        assertResumable(exporter, full.toByteArray());
+    }
+
+    @Test
+    public void tar_resumable() throws IOException {
+        LogExporter exporter = new LogExporter(LogExporter.Format.TAR);
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        exporter.export(mFiles, full, 0);
+        byte[] archive = full.toByteArray();
+        assertEquals(0, archive.length % 512);
+        assertEquals("log0.txt", new String(archive, 0, 8));
+        assertResumable(exporter, archive);
+    }
+
+    @Test
+    public void tar_toFileMatchesStreamAndResumes() throws IOException {
+        LogExporter exporter = new LogExporter(LogExporter.Format.TAR);
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        exporter.export(mFiles, full, 0);
+        byte[] archive = full.toByteArray();
+
+        File target = new File(mTempFolder.newFolder(), "logs.tar");
+        assertEquals(archive.length, exporter.export(mFiles, target));
+        assertArrayEquals(archive, TestFiles.readAll(target));
+        // Received up to the middle of the largest file
+        RandomAccessFile raf = new RandomAccessFile(target, "rw");
+        raf.setLength(archive.length - 100 * 1024);
+        raf.close();
+        assertEquals(archive.length, exporter.export(mFiles, target));
+        assertArrayEquals(archive, TestFiles.readAll(target));
+    }
+
+    @Test
+    public void zip_independentOfDefaultTimeZone() throws IOException {
+        LogExporter exporter = new LogExporter(LogExporter.Format.ZIP);
+        TimeZone zone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Taipei"));
+            ByteArrayOutputStream taipei = new ByteArrayOutputStream();
+            exporter.export(mFiles, taipei, 0);
+            TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+            ByteArrayOutputStream losAngeles = new ByteArrayOutputStream();
+            exporter.export(mFiles, losAngeles, 0);
+            assertArrayEquals(taipei.toByteArray(), losAngeles.toByteArray());
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setLevel_rejectsOutOfRange() {
+        new LogExporter(LogExporter.Format.ZIP).setLevel(42);
+    }
+
+    @Test(timeout = 10000)
+    public void zip_deflateFailureEndsExport() {
+        LogExporter exporter = new LogExporter(LogExporter.Format.ZIP);
+        exporter.setQueueChunks(1);
+        // The file is gone after it's selected, its worker fails before any chunk
+        assertTrue(new File(mDir, "log3.txt").delete());
+        try {
+            exporter.export(mFiles, new ByteArrayOutputStream(), 0);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private void assertResumable(LogExporter exporter, byte[] full) throws IOException {
+        for (long offset : new long[]{1, 511, 513, 1024 + 100, full.length / 2, full.length - 1, full.length}) {
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            exporter.export(mFiles, rest, offset);
+            assertArrayEquals(Arrays.copyOfRange(full, (int) offset, full.length), rest.toByteArray());
+        }
+    }
+}
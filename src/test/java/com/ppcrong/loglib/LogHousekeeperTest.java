@@ -0,0 +1,212 @@
+package com.ppcrong.loglib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Catalog and retention of log directories
+ */
+public class LogHousekeeperTest {
+
+    private static final long T0 = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+    private LogHousekeeper mHousekeeper;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mTempFolder.getRoot();
+        for (int i = 0; i < 5; i++) createFile("log" + i + ".txt", 100 * (i + 1), T0 + i * 1000L);
+        mHousekeeper = new LogHousekeeper(new JvmLogDiagnostics());
+        mHousekeeper.addDir(mDir);
+    }
+
+    @After
+    public void tearDown() {
+        mHousekeeper.stop();
+    }
+
+    @Test
+    public void catalog_queries() {
+        assertEquals(1500, mHousekeeper.getTotalBytes());
+        assertEquals(5, mHousekeeper.getFileCount());
+
+        List<LogHousekeeper.Entry> oldest = mHousekeeper.getOldest(2);
+        assertEquals(2, oldest.size());
+        assertEquals("log0.txt", oldest.get(0).getFile().getName());
+        assertEquals("log1.txt", oldest.get(1).getFile().getName());
+        assertEquals("txt", oldest.get(0).getType());
+
+        List<LogHousekeeper.Entry> range = mHousekeeper.getFiles(T0 + 1000, T0 + 3000);
+        assertEquals(2, range.size());
+        assertEquals("log1.txt", range.get(0).getFile().getName());
+        assertEquals("log2.txt", range.get(1).getFile().getName());
+    }
+
+    @Test
+    public void reconcile_picksUpOtherChanges() throws IOException {
+        assertTrue(new File(mDir, "log0.txt").delete());
+        createFile("other.gz", 50, T0 + 9000);
+        assertEquals(1500, mHousekeeper.getTotalBytes());
+        mHousekeeper.reconcile();
+        assertEquals(1450, mHousekeeper.getTotalBytes());
+        assertEquals("gz", mHousekeeper.getEntry(new File(mDir, "other.gz")).getType());
+        assertNull(mHousekeeper.getEntry(new File(mDir, "log0.txt")));
+    }
+
+    @Test
+    public void retention_deletesOldestInBatchButProtected() {
+        mHousekeeper.protect(new File(mDir, "log0.txt"));
+        mHousekeeper.setRetention(1000, 0, 4);
+        // log0 is protected, log1 and log2 go: 1500 - 200 - 300 = 1000
+        assertEquals(2, mHousekeeper.applyRetention());
+        assertTrue(new File(mDir, "log0.txt").exists());
+        assertFalse(new File(mDir, "log1.txt").exists());
+        assertFalse(new File(mDir, "log2.txt").exists());
+        assertEquals(1000, mHousekeeper.getTotalBytes());
+        assertEquals(0, mHousekeeper.applyRetention());
+    }
+
+    @Test
+    public void retention_keepsFilesExcludedByFilter() throws IOException {
+        createFile("export.zip", 1000, T0 - 1000);
+        mHousekeeper.reconcile();
+        mHousekeeper.setRetentionFilter(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().endsWith(".zip");
+            }
+        });
+        mHousekeeper.setRetention(1000, 0, 0);
+        // The export doesn't count: 1500 - 100 - 200 - 300 = 900
+        assertEquals(3, mHousekeeper.applyRetention());
+        assertTrue(new File(mDir, "export.zip").exists());
+        assertFalse(new File(mDir, "log2.txt").exists());
+        assertTrue(new File(mDir, "log3.txt").exists());
+    }
+
+    @Test
+    public void deleteOldest_keepsFileProtectedAfterPicked() {
+        final File log0 = new File(mDir, "log0.txt").getAbsoluteFile();
+        assertEquals(1, mHousekeeper.deleteOldest(mDir, 200, new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                // Protected once picked, as by a writer reopening it
+                if (file.equals(log0)) mHousekeeper.protect(file);
+                return true;
+            }
+        }));
+        assertTrue(log0.exists());
+        assertFalse(new File(mDir, "log1.txt").exists());
+    }
+
+    @Test
+    public void logLib_reportsWritesAndDeletes() {
+        LogLib logLib = new LogLib(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        logLib.setHousekeeper(mHousekeeper);
+        assertTrue(logLib.openLogFile(mDir, "active.log", 64 * 1024));
+        logLib.writeLog("0123456789");
+        logLib.flushLogFile();
+        File active = new File(mDir, "active.log");
+        // Logical size, not the preallocated size on disk
+        assertEquals(10, mHousekeeper.getEntry(active).getSize());
+        mHousekeeper.reconcile();
+        assertEquals(10, mHousekeeper.getEntry(active).getSize());
+
+        mHousekeeper.setRetention(0, 0, 1);
+        assertEquals(5, mHousekeeper.applyRetention());
+        assertTrue(active.exists());
+
+        logLib.writeLog("0123456789");
+        logLib.closeLogFile();
+        assertEquals(20, mHousekeeper.getTotalBytes());
+        logLib.deleteRecursive(active);
+        assertEquals(0, mHousekeeper.getTotalBytes());
+        assertEquals(0, mHousekeeper.getFileCount());
+    }
+
+    @Test
+    public void entryType_independentOfDefaultLocale() throws IOException {
+        Locale locale = Locale.getDefault();
+        try {
+            // Turkish lower case of 'I' is a dotless i
+            Locale.setDefault(new Locale("tr", "TR"));
+            createFile("export.ZIP", 10, T0);
+            mHousekeeper.reconcile();
+            assertEquals("zip", mHousekeeper.getEntry(new File(mDir, "export.ZIP")).getType());
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void logLib_protectsStoreSegment() {
+        LogLib logLib = new LogLib(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        logLib.setHousekeeper(mHousekeeper);
+        assertTrue(logLib.openLogStore(mDir, 256));
+        for (int i = 0; i < 20; i++) logLib.writeLog("record " + i + "\n");
+        File segment = logLib.getLogStore().getSegmentFile();
+        assertTrue(SegmentedLogStore.listSegments(mDir).length > 1);
+
+        mHousekeeper.setRetention(0, 0, 1);
+        mHousekeeper.applyRetention();
+        assertTrue(segment.exists());
+        assertEquals(1, SegmentedLogStore.listSegments(mDir).length);
+
+        logLib.closeLogStore();
+        mHousekeeper.applyRetention();
+        assertEquals(1, mHousekeeper.getFileCount());
+    }
+
+    @Test
+    public void sLogLib_protectsActiveAndSharedFiles() throws IOException {
+        LogStorage storage = sLogLib.getStorage();
+        LogDiagnostics diagnostics = sLogLib.getDiagnostics();
+        try {
+            sLogLib.setPlatform(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+            sLogLib.setHousekeeper(mHousekeeper);
+            assertTrue(sLogLib.openLogFile(mDir, "active.log"));
+            assertTrue(sLogLib.openSharedLogFile(mDir, "shared.log", 4096));
+            File active = new File(mDir, "active.log");
+            File shared = new File(mDir, "shared.log");
+
+            mHousekeeper.setRetention(0, 0, 1);
+            mHousekeeper.applyRetention();
+            assertTrue(active.exists() && shared.exists());
+            assertEquals(2, mHousekeeper.getFileCount());
+
+            sLogLib.closeSharedLogFile();
+            sLogLib.closeLogFile();
+            mHousekeeper.applyRetention();
+            assertEquals(1, mHousekeeper.getFileCount());
+        } finally {
+            sLogLib.closeSharedLogFile();
+            sLogLib.closeLogFile();
+            sLogLib.setHousekeeper(null);
+            sLogLib.setPlatform(storage, diagnostics);
+        }
+    }
+
+    private void createFile(String name, int size, long time) throws IOException {
+        File file = new File(mDir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[size]);
+        out.close();
+        assertTrue(file.setLastModified(time));
+    }
+}
@@ -0,0 +1,166 @@
+package com.ppcrong.loglib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load generator of LogLib/sLogLib on pure JVM
+ * <p>
+ * Configurable by system properties: loglib.load.threads, loglib.load.recordSize and
+ * loglib.load.durationMs. Every record is "thread:seq:payload\n", the written file is checked
+ * for lost and torn records. The throughput is reported with -Dloglib.benchmark=true.
+ */
+public class LogLibLoadTest {
+
+    private static final int THREADS = Integer.getInteger("loglib.load.threads", 4);
+    private static final int RECORD_SIZE = Integer.getInteger("loglib.load.recordSize", 128);
+    private static final long DURATION_MS = Long.getLong("loglib.load.durationMs", 1000L);
+
+    /**
+     * Record writer under test
+     */
+    private interface Writer {
+        void write(String record);
+    }
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+    private LogStorage mStorage;
+    private LogDiagnostics mDiagnostics;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mTempFolder.getRoot();
+        mStorage = sLogLib.getStorage();
+        mDiagnostics = sLogLib.getDiagnostics();
+    }
+
+    @After
+    public void tearDown() {
+        // sLogLib is static, don't leak the platform to other tests
+        sLogLib.setPlatform(mStorage, mDiagnostics);
+    }
+
+    @Test
+    public void logLib_noLostOrTornRecords() throws Exception {
+        final LogLib logLib = new LogLib(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        assertTrue(logLib.openLogFile(mDir, "load.log"));
+        long[] counts = run("LogLib", new Writer() {
+            @Override
+            public void write(String record) {
+                logLib.writeLog(record);
+            }
+        });
+        String path = logLib.closeLogFileReturnPath();
+        verify(new File(path), counts);
+    }
+
+    @Test
+    public void logLibAdaptiveFlush_noLostOrTornRecords() throws Exception {
+        final LogLib logLib = new LogLib(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        logLib.enableAdaptiveFlush(20, 64 * 1024);
+        assertTrue(logLib.openLogFile(mDir, "adaptive.log"));
+        long[] counts = run("LogLib adaptive flush", new Writer() {
+            @Override
+            public void write(String record) {
+                logLib.writeLog(record);
+            }
+        });
+        String path = logLib.closeLogFileReturnPath();
+        logLib.disableAdaptiveFlush();
+        if (Benchmarks.isEnabled()) {
+            System.out.println("flushes: " + logLib.getMetrics().getFlushCount() +
+                    ", decision: " + logLib.getMetrics().getFlushDecision());
+        }
+        verify(new File(path), counts);
+    }
+
+    @Test
+    public void sLogLib_noLostOrTornRecords() throws Exception {
+        sLogLib.setPlatform(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        assertTrue(sLogLib.openLogFile(mDir, "sload.log", 1024 * 1024));
+        long[] counts = run("sLogLib", new Writer() {
+            @Override
+            public void write(String record) {
+                sLogLib.writeLog(record);
+            }
+        });
+        String path = sLogLib.closeLogFileReturnPath();
+        verify(new File(path), counts);
+    }
+
+    private long[] run(String name, final Writer writer) throws InterruptedException {
+        final long[] counts = new long[THREADS];
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long seq = 0;
+                    while (!stop.get()) {
+                        writer.write(record(id, seq++));
+                    }
+                    counts[id] = seq;
+                    done.countDown();
+                }
+            }).start();
+        }
+        long start = System.nanoTime();
+        Thread.sleep(DURATION_MS);
+        stop.set(true);
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = 0;
+        for (long c : counts) total += c;
+        for (long c : counts) assertTrue(name + " writer made no progress", c > 0);
+        if (Benchmarks.isEnabled()) {
+            System.out.println(String.format("%s: %d threads, %d bytes/record, %d records, %.0f records/s, %.1f MB/s",
+                    name, THREADS, RECORD_SIZE, total, total / seconds, total * RECORD_SIZE / seconds / 1e6));
+        }
+        return counts;
+    }
+
+    private static String record(int thread, long seq) {
+        StringBuilder sb = new StringBuilder(RECORD_SIZE);
+        sb.append(thread).append(':').append(seq).append(':');
+        char c = (char) ('a' + (thread + seq) % 26);
+        while (sb.length() < RECORD_SIZE - 1) sb.append(c);
+        return sb.append('\n').toString();
+    }
+
+    private static void verify(File file, long[] counts) throws IOException {
+        long[] next = new long[counts.length];
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int thread = Integer.parseInt(line.substring(0, line.indexOf(':')));
+                long seq = Long.parseLong(line.substring(line.indexOf(':') + 1, line.lastIndexOf(':')));
+                assertEquals("Lost or reordered record of thread " + thread, next[thread], seq);
+                assertEquals("Torn record", record(thread, seq), line + "\n");
+                next[thread]++;
+            }
+        } finally {
+            reader.close();
+        }
+        for (int t = 0; t < counts.length; t++) {
+            assertEquals("Lost records of thread " + t, counts[t], next[t]);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.ppcrong.loglib;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Route records by tag and priority
+ */
+public class LogRouterTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+    private LogRouter mRouter;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mTempFolder.getRoot();
+        mRouter = new LogRouter(new JvmLogDiagnostics());
+    }
+
+    @Test
+    public void route_byTagAndPriority() {
+        RingLogSink all = new RingLogSink(4096);
+        RingLogSink net = new RingLogSink(4096);
+        mRouter.addRoute(LogRouter.ANY_TAG, Log.WARN, all);
+        mRouter.addRoute("net", Log.DEBUG, net, all);
+
+        mRouter.log(Log.DEBUG, "ui", "dropped");
+        mRouter.log(Log.ERROR, "ui", "ui error");
+        mRouter.log(Log.DEBUG, "net", "net debug");
+        mRouter.log(Log.VERBOSE, "net", "dropped too");
+
+        String allText = new String(all.snapshot());
+        String netText = new String(net.snapshot());
+        assertFalse(allText.contains("dropped"));
+        assertTrue(allText.contains(" E/ui: ui error\n"));
+        assertTrue(allText.contains(" D/net: net debug\n"));
+        assertEquals(2, allText.split("\n").length);
+        assertTrue(netText.endsWith(" D/net: net debug\n"));
+        assertEquals(1, netText.split("\n").length);
+        assertFalse(mRouter.isRouted(Log.INFO, "ui"));
+        assertTrue(mRouter.isRouted(Log.INFO, "net"));
+
+        mRouter.removeRoutes("net");
+        assertFalse(mRouter.isRouted(Log.INFO, "net"));
+    }
+
+    @Test
+    public void fanOut_encodedOnceAndShared() throws IOException {
+        final List<byte[]> buffers = new ArrayList<>();
+        LogSink spy = new LogSink() {
+            @Override
+            public void write(LogRecord record) {
+                buffers.add(record.getBytes());
+            }
+        };
+        LogSink spy2 = new LogSink() {
+            @Override
+            public void write(LogRecord record) {
+                buffers.add(record.getBytes());
+            }
+        };
+        LogLib logLib = new LogLib(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        assertTrue(logLib.openLogFile(mDir, "routed.log"));
+        RingLogSink ring = new RingLogSink(4096);
+        mRouter.addRoute(LogRouter.ANY_TAG, Log.VERBOSE, spy, new FileLogSink(logLib), ring, spy, spy2);
+
+        logLib.writeLog("plain text\n");
+        mRouter.log(Log.INFO, "tag", "caf\u00e9 \ud83d\ude00");
+        String path = logLib.closeLogFileReturnPath();
+
+        // The same sink in one route gets the record once, all sinks share the encoded bytes
+        assertEquals(2, buffers.size());
+        assertSame(buffers.get(0), buffers.get(1));
+        String line = new String(ring.snapshot(), "UTF-8");
+        assertTrue(line.matches("\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3} I/tag: caf\u00e9 \ud83d\ude00\n"));
+        assertEquals("plain text\n" + line, new String(TestFiles.readAll(new File(path)), "UTF-8"));
+    }
+
+    @Test
+    public void ring_dropsOldest() {
+        RingLogSink ring = new RingLogSink(200);
+        mRouter.addRoute("t", Log.VERBOSE, ring);
+        for (int i = 0; i < 100; i++) mRouter.log(Log.INFO, "t", "record " + i);
+        String[] lines = new String(ring.snapshot()).split("\n");
+        assertTrue(lines.length > 1 && lines.length < 100);
+        assertTrue(lines[lines.length - 1].endsWith("record 99"));
+    }
+}
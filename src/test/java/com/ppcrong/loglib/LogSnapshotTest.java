@@ -0,0 +1,112 @@
+package com.ppcrong.loglib;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Snapshot read of the log file being written
+ */
+public class LogSnapshotTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+    private LogLib mLogLib;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mTempFolder.getRoot();
+        mLogLib = new LogLib(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+    }
+
+    @Test
+    public void snapshot_includesUnflushedData() {
+        assertNull(mLogLib.readLogSnapshot(0));
+        assertTrue(mLogLib.openLogFile(mDir, "live.log", 64 * 1024));
+        mLogLib.writeLog("first\n");
+        mLogLib.writeLog(new byte[]{'b', 'i', 'n', '\n'});
+        mLogLib.writeLog("third\n");
+        assertEquals("first\nbin\nthird\n", new String(mLogLib.readLogSnapshot(0)));
+        assertEquals("bin\nthird\n", new String(mLogLib.readLogSnapshot(6)));
+        assertEquals(0, mLogLib.readLogSnapshot(100).length);
+        mLogLib.closeLogFile();
+    }
+
+    @Test
+    public void snapshot_endsOnRecordWhileWriting() throws Exception {
+        assertTrue(mLogLib.openLogFile(mDir, "live.log"));
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int seq = 0; !stop.get(); seq++) {
+                    mLogLib.writeLog(record(seq));
+                    if (seq % 1000 == 0) mLogLib.flushLogFile();
+                }
+            }
+        });
+        writer.start();
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        long deadline = System.currentTimeMillis() + 500;
+        int snapshots = 0;
+        while (System.currentTimeMillis() < deadline) {
+            byte[] data = mLogLib.readLogSnapshot(read.size());
+            if (data.length > 0) assertEquals('\n', data[data.length - 1]);
+            read.write(data);
+            snapshots++;
+        }
+        stop.set(true);
+        writer.join();
+        String path = mLogLib.closeLogFileReturnPath();
+
+        byte[] file = TestFiles.readAll(new File(path));
+        String text = read.toString();
+        assertTrue(snapshots > 1 && text.length() > 0);
+        assertEquals(new String(file, 0, read.size()), text);
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) assertEquals(record(i), lines[i] + "\n");
+    }
+
+    @Test
+    public void snapshotAndCursor_shareTailMemory() throws Exception {
+        assertTrue(mLogLib.openLogFile(mDir, "live.log"));
+        LogTail tail = mLogLib.getLogTail();
+        LogTail.Cursor cursor = tail.openCursor(true);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream tailed = new ByteArrayOutputStream();
+        for (int seq = 0; seq < 5000; seq++) {
+            String record = record(seq);
+            mLogLib.writeLog(record);
+            expected.write(record.getBytes());
+            if (seq % 100 == 0) {
+                mLogLib.flushLogFile();
+                tailed.write(cursor.read());
+            }
+        }
+        // The snapshot sees the unflushed part, the cursor only the flushed one
+        assertArrayEquals(expected.toByteArray(), mLogLib.readLogSnapshot(0));
+        assertTrue(tail.getCommitted() < tail.getEnd());
+        mLogLib.flushLogFile();
+        tailed.write(cursor.read());
+        assertArrayEquals(expected.toByteArray(), tailed.toByteArray());
+        cursor.close();
+        mLogLib.closeLogFile();
+    }
+
+    private static String record(int seq) {
+        StringBuilder sb = new StringBuilder().append(seq).append(':');
+        while (sb.length() < 50 + seq % 37) sb.append((char) ('a' + seq % 26));
+        return sb.append('\n').toString();
+    }
+}
@@ -0,0 +1,122 @@
+package com.ppcrong.loglib;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tail readers against an actively written log
+ */
+public class LogTailTest {
+
+    private static final int RECORD_COUNT = 20000;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = mTempFolder.newFile("tail.log");
+    }
+
+    @Test
+    public void pollAndListener_seeAllFlushedRecords() throws Exception {
+        // Small ring so that slow readers fall back to the file
+        final LogTail tail = new LogTail(new FileOutputStream(mFile), mFile, 256);
+        final LogTail.Cursor cursor = tail.openCursor(true);
+        final ByteArrayOutputStream polled = new ByteArrayOutputStream();
+        final ByteArrayOutputStream listened = new ByteArrayOutputStream();
+        final CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        LogTail.Cursor listenerCursor = tail.addListener(new LogTail.Listener() {
+            @Override
+            public void onData(byte[] data) {
+                listened.write(data, 0, data.length);
+            }
+        }, executor, true);
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        byte[] data = cursor.poll(1, TimeUnit.SECONDS);
+                        if (data.length == 0 && tail.isClosed() && cursor.getPosition() == tail.getCommitted()) break;
+                        polled.write(data, 0, data.length);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                done.countDown();
+            }
+        });
+        reader.start();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            byte[] record = ("record " + i + "\n").getBytes();
+            tail.write(record);
+            expected.write(record);
+            if (i % 10 == 0) tail.flush();
+        }
+        tail.close();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        listenerCursor.close();
+        cursor.close();
+        assertArrayEquals(expected.toByteArray(), polled.toByteArray());
+        assertArrayEquals(expected.toByteArray(), listened.toByteArray());
+    }
+
+    @Test
+    public void memory_keptOnlyWhileCursorsOpen() throws IOException {
+        // No file to fall back, reads must be served by memory
+        LogTail tail = new LogTail(new ByteArrayOutputStream(), null, 1024);
+        // More than a chunk, the full chunk isn't kept without cursors
+        tail.write(new byte[2000]);
+        tail.flush();
+        LogTail.Cursor late = tail.openCursor(true);
+        try {
+            late.read();
+            fail("Data written without cursors isn't kept");
+        } catch (IOException e) {
+            // Expected
+        }
+        late.close();
+
+        LogTail.Cursor cursor = tail.openCursor(false);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        for (int i = 0; i < 1000; i++) {
+            byte[] record = ("record " + i + "\n").getBytes();
+            tail.write(record);
+            expected.write(record);
+            if (i % 7 == 0) {
+                tail.flush();
+                byte[] data = cursor.read();
+                read.write(data, 0, data.length);
+            }
+        }
+        tail.close();
+        byte[] data = cursor.read();
+        read.write(data, 0, data.length);
+        cursor.close();
+        assertArrayEquals(expected.toByteArray(), read.toByteArray());
+    }
+}
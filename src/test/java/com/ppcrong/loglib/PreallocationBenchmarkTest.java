@@ -0,0 +1,146 @@
+package com.ppcrong.loglib;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Preallocation, crash recovery and p99 write latency with and without it
+ */
+public class PreallocationBenchmarkTest {
+
+    private static final int RECORD_SIZE = 256;
+    private static final int RECORD_COUNT = 20000;
+    private static final long PREALLOCATE_BYTES = 1024 * 1024;
+    /**
+     * p99 budget: the preallocated write is at most this many times slower than plain write
+     */
+    private static final double P99_BUDGET = 1.5;
+    private static final int ROUNDS = 3;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mTempFolder.getRoot();
+    }
+
+    @Test
+    public void preallocated_trimmedToLogicalEnd() throws IOException {
+        File file = new File(mDir, "trim.log");
+        PreallocatedOutputStream s = new PreallocatedOutputStream(file, 4096, new JvmLogStorage(mDir));
+        assertEquals(4096, file.length());
+        s.write(new byte[5000]);
+        assertEquals(8192, s.getReserved());
+        s.write("end".getBytes());
+        s.close();
+        assertEquals(5003, file.length());
+    }
+
+    @Test
+    public void crashLeftPadding_trimmedToRecordedEnd() throws IOException {
+        // A crash leaves the reserved file and its marker with the logical end, the data ends
+        // with zeros which are not padding
+        File crashed = new File(mDir, "crashed.log");
+        byte[] data = Arrays.copyOf("binary\n".getBytes(), 7 + 5);
+        FileOutputStream out = new FileOutputStream(crashed);
+        out.write(data);
+        out.write(new byte[4096 - data.length]);
+        out.close();
+        writeMarker(crashed, data.length);
+        // Ends with zeros too, but it has no marker
+        File plain = new File(mDir, "plain.log");
+        out = new FileOutputStream(plain);
+        out.write(new byte[100]);
+        out.close();
+
+        // The file read back is untouched before recovery
+        LogLib logLib = new LogLib(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        assertEquals(4096, logLib.readFile(crashed.getPath()).length);
+
+        // Reopen with preallocation recovers the other files of the dir
+        assertTrue(logLib.openLogFile(mDir, "next.log", 4096));
+        assertArrayEquals(data, TestFiles.readAll(crashed));
+        assertFalse(PreallocatedOutputStream.getMarkerFile(crashed).exists());
+        assertEquals(100, plain.length());
+        // The open file keeps its reservation
+        assertEquals(0, logLib.recoverLogFiles(mDir));
+        assertEquals(4096, new File(mDir, "next.log").length());
+        logLib.closeLogFile();
+        assertEquals(0, new File(mDir, "next.log").length());
+        assertFalse(PreallocatedOutputStream.getMarkerFile(new File(mDir, "next.log")).exists());
+    }
+
+    @Test
+    public void lockedMarker_leftAlone() throws IOException {
+        File file = new File(mDir, "other.log");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[4096]);
+        out.close();
+        writeMarker(file, 10);
+        // Another writer holds the marker
+        RandomAccessFile marker = new RandomAccessFile(PreallocatedOutputStream.getMarkerFile(file), "rw");
+        try {
+            marker.getChannel().lock();
+            assertFalse(PreallocatedOutputStream.trimPadding(file));
+            assertEquals(4096, file.length());
+        } finally {
+            marker.close();
+        }
+        assertTrue(PreallocatedOutputStream.trimPadding(file));
+        assertEquals(10, file.length());
+    }
+
+    @Test
+    public void writeLatency_p99() throws IOException {
+        Benchmarks.assumeEnabled();
+        // Best of rounds, the first ones warm up JIT
+        long plain = Long.MAX_VALUE;
+        long prealloc = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            plain = Math.min(plain, p99(new FileOutputStream(new File(mDir, "plain.log"))));
+            prealloc = Math.min(prealloc, p99(new PreallocatedOutputStream(new File(mDir, "prealloc.log"),
+                    PREALLOCATE_BYTES, new JvmLogStorage(mDir))));
+        }
+        System.out.println("p99 write latency (ns), plain: " + plain + ", preallocated: " + prealloc);
+        assertTrue("Preallocated p99 is over budget", prealloc <= plain * P99_BUDGET);
+    }
+
+    private static void writeMarker(File file, long end) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(PreallocatedOutputStream.getMarkerFile(file)));
+        out.writeLong(end);
+        out.close();
+    }
+
+    private long p99(OutputStream s) throws IOException {
+        byte[] record = new byte[RECORD_SIZE];
+        Arrays.fill(record, (byte) 'x');
+        record[RECORD_SIZE - 1] = '\n';
+        long[] latencies = new long[RECORD_COUNT];
+        try {
+            for (int i = 0; i < RECORD_COUNT; i++) {
+                long start = System.nanoTime();
+                s.write(record);
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            s.close();
+        }
+        Arrays.sort(latencies);
+        return latencies[(int) (RECORD_COUNT * 0.99)];
+    }
+}
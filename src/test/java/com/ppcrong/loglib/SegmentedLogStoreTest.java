@@ -0,0 +1,147 @@
+package com.ppcrong.loglib;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Segmented log store recovery and replay
+ */
+public class SegmentedLogStoreTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mTempFolder.getRoot();
+    }
+
+    @Test
+    public void crc32c_knownValue() {
+        byte[] data = "123456789".getBytes();
+        assertEquals(0xE3069283, Crc32c.compute(data, 0, data.length));
+    }
+
+    @Test
+    public void replay_acrossSegments() throws IOException {
+        SegmentedLogStore store = new SegmentedLogStore(mDir, 1024);
+        for (int i = 0; i < 500; i++) {
+            store.append(("record " + i).getBytes());
+        }
+        store.close();
+        assertTrue(SegmentedLogStore.listSegments(mDir).length > 1);
+        assertEquals(500, replay());
+    }
+
+    @Test
+    public void reopen_truncatesTornTail() throws IOException {
+        SegmentedLogStore store = new SegmentedLogStore(mDir, 1024 * 1024);
+        for (int i = 0; i < 100; i++) {
+            store.append(("record " + i).getBytes());
+        }
+        store.close();
+
+        // Simulate a crash in the middle of the last record
+        File segment = SegmentedLogStore.listSegments(mDir)[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        long validLength = raf.length();
+        raf.setLength(validLength - 3);
+        raf.close();
+
+        store = new SegmentedLogStore(mDir, 1024 * 1024);
+        assertEquals(validLength - "record 99".length() - SegmentedLogStore.HEADER_SIZE, segment.length());
+        store.append("after crash".getBytes());
+        store.close();
+
+        SegmentedLogStore.RecordIterator it = new SegmentedLogStore.RecordIterator(SegmentedLogStore.listSegments(mDir));
+        String last = null;
+        int count = 0;
+        while (it.hasNext()) {
+            last = new String(it.next());
+            count++;
+        }
+        assertEquals(100, count);
+        assertEquals("after crash", last);
+    }
+
+    @Test
+    public void replay_stopsAtCorruptedRecord() throws IOException {
+        SegmentedLogStore store = new SegmentedLogStore(mDir, 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            store.append(("record " + i).getBytes());
+        }
+        store.close();
+
+        File segment = SegmentedLogStore.listSegments(mDir)[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        // Flip a payload byte of the 6th record
+        long pos = 5 * (SegmentedLogStore.HEADER_SIZE + "record 0".length()) + SegmentedLogStore.HEADER_SIZE;
+        raf.seek(pos);
+        raf.write('X');
+        raf.close();
+        assertEquals(5, replay());
+    }
+
+    @Test
+    public void open_skipsNonNumericSegmentNames() throws IOException {
+        SegmentedLogStore store = new SegmentedLogStore(mDir, 1024);
+        store.append("record 0".getBytes());
+        store.close();
+        assertTrue(new File(mDir, "notes.seg").createNewFile());
+        assertTrue(new File(mDir, ".seg").createNewFile());
+
+        store = new SegmentedLogStore(mDir, 1024);
+        store.append("record 1".getBytes());
+        store.close();
+        assertEquals(1, SegmentedLogStore.listSegments(mDir).length);
+        assertEquals(2, replay());
+    }
+
+    @Test
+    public void logLib_splitsOverLongRecord() throws IOException {
+        LogLib logLib = new LogLib(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        assertTrue(logLib.openLogStore(mDir, 64));
+        int max = logLib.getLogStore().getMaxRecordSize();
+        assertEquals(64 - SegmentedLogStore.HEADER_SIZE, max);
+        byte[] record = new byte[max * 2 + 10];
+        for (int i = 0; i < record.length; i++) record[i] = (byte) ('a' + i % 26);
+        logLib.writeLog(record, 0, record.length);
+        logLib.writeLog(new String(record));
+        logLib.closeLogStore();
+
+        SegmentedLogStore.RecordIterator it = new SegmentedLogStore.RecordIterator(SegmentedLogStore.listSegments(mDir));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = 0;
+        while (it.hasNext()) {
+            byte[] payload = it.next();
+            assertTrue(payload.length <= max);
+            out.write(payload, 0, payload.length);
+            count++;
+        }
+        it.close();
+        assertEquals(6, count);
+        assertEquals(new String(record) + new String(record), out.toString());
+    }
+
+    private int replay() {
+        SegmentedLogStore.RecordIterator it = new SegmentedLogStore.RecordIterator(SegmentedLogStore.listSegments(mDir));
+        int i = 0;
+        while (it.hasNext()) {
+            assertEquals("record " + i, new String(it.next()));
+            i++;
+        }
+        it.close();
+        return i;
+    }
+}
@@ -0,0 +1,143 @@
+package com.ppcrong.loglib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Several JVM processes log into one shared file through sLogLib
+ */
+public class SharedLogFileTest {
+
+    private static final int PROCESSES = 3;
+    private static final int THREADS = 2;
+    private static final int RECORDS = 5000;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+    private LogStorage mStorage;
+    private LogDiagnostics mDiagnostics;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mTempFolder.getRoot();
+        mStorage = sLogLib.getStorage();
+        mDiagnostics = sLogLib.getDiagnostics();
+    }
+
+    @After
+    public void tearDown() {
+        // sLogLib is static, don't leak the platform to other tests
+        sLogLib.setPlatform(mStorage, mDiagnostics);
+    }
+
+    /**
+     * Child process: log RECORDS records from each of THREADS threads
+     *
+     * @param args The dir and the process id
+     */
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args[0]);
+        sLogLib.setPlatform(new JvmLogStorage(dir), new JvmLogDiagnostics());
+        if (!sLogLib.openSharedLogFile(dir, "session.log", 16 * 1024 * 1024)) System.exit(1);
+        writeRecords(args[1]);
+        sLogLib.closeSharedLogFile();
+    }
+
+    private static void writeRecords(final String process) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int seq = 0; seq < RECORDS; seq++) sLogLib.writeLog(record(process + "." + id, seq));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) thread.join();
+    }
+
+    @Test
+    public void processes_noLostOrTornRecords() throws Exception {
+        sLogLib.setPlatform(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        assertTrue(sLogLib.openSharedLogFile(mDir, "session.log", 16 * 1024 * 1024));
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        for (int p = 1; p <= PROCESSES; p++) {
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    SharedLogFileTest.class.getName(), mDir.getPath(), "p" + p).inheritIO().start());
+        }
+        writeRecords("p0");
+        for (Process process : processes) assertEquals(0, process.waitFor());
+        String path = sLogLib.closeSharedLogFile();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long records = SharedLogFile.copyTo(new File(path), out);
+        assertEquals((PROCESSES + 1) * THREADS * RECORDS, records);
+        Map<String, Integer> next = new HashMap<>();
+        for (String line : out.toString().split("\n")) {
+            String writer = line.substring(0, line.indexOf(':'));
+            int seq = Integer.parseInt(line.substring(line.indexOf(':') + 1, line.lastIndexOf(':')));
+            Integer expected = next.get(writer);
+            assertEquals("Lost or reordered record of " + writer, expected == null ? 0 : expected, seq);
+            assertEquals("Torn record", record(writer, seq), line + "\n");
+            next.put(writer, seq + 1);
+        }
+        assertEquals((PROCESSES + 1) * THREADS, next.size());
+    }
+
+    @Test
+    public void full_dropsRecords() throws IOException {
+        SharedLogFile shared = new SharedLogFile(new File(mDir, "small.log"), 64);
+        int appended = 0;
+        while (shared.append(record("w", appended).getBytes())) appended++;
+        assertEquals(1, shared.getDropped());
+        shared.close();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(appended, SharedLogFile.copyTo(shared.getFile(), out));
+    }
+
+    @Test
+    public void zeroMagic_createdAgain() throws IOException {
+        // Left by a process died after sizing the file, before the magic
+        File file = new File(mDir, "torn.log");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(SharedLogFile.HEADER_SIZE + 1024);
+        raf.close();
+        assertEquals(0, SharedLogFile.copyTo(file, new ByteArrayOutputStream()));
+
+        SharedLogFile shared = new SharedLogFile(file, 256);
+        assertEquals(256, shared.getCapacity());
+        assertTrue(shared.append(record("w", 0).getBytes()));
+        // Read while this process has it open
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, SharedLogFile.copyTo(file, out));
+        assertEquals(record("w", 0), out.toString());
+        shared.close();
+    }
+
+    private static String record(String writer, int seq) {
+        StringBuilder sb = new StringBuilder().append(writer).append(':').append(seq).append(':');
+        while (sb.length() < 40 + seq % 13) sb.append((char) ('a' + seq % 26));
+        return sb.append('\n').toString();
+    }
+}
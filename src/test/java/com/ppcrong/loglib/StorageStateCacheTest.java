@@ -0,0 +1,79 @@
+package com.ppcrong.loglib;
+
+import android.os.Environment;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Storage state cache with a JVM test double
+ */
+public class StorageStateCacheTest {
+
+    private FakeStorageStateSource mSource;
+    private StorageStateCache mCache;
+
+    @Before
+    public void setUp() {
+        mSource = new FakeStorageStateSource();
+        mCache = new StorageStateCache(mSource);
+    }
+
+    @Test
+    public void check_queriesOnceWithinMaxAge() {
+        mCache.setMaxAge(60 * 1000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(mCache.isWritable());
+            assertTrue(mCache.isReadable());
+        }
+        assertEquals(1, mSource.getQueryCount());
+    }
+
+    @Test
+    public void check_queriesAgainAfterMaxAge() throws InterruptedException {
+        mCache.setMaxAge(1);
+        assertTrue(mCache.isWritable());
+        mSource.setState(Environment.MEDIA_MOUNTED_READ_ONLY);
+        Thread.sleep(5);
+        assertFalse(mCache.isWritable());
+        assertTrue(mCache.isReadable());
+    }
+
+    @Test
+    public void periodicRefresh_updatesState() throws InterruptedException {
+        mCache.setMaxAge(0);
+        mCache.startPeriodicRefresh(10);
+        try {
+            assertTrue(mCache.isWritable());
+            mSource.setState("unmounted");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mCache.isReadable() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(mCache.isReadable());
+        } finally {
+            mCache.stopPeriodicRefresh();
+        }
+    }
+
+    @Test
+    public void setStorageStateCache_appliedToAndroidStorage() {
+        LogLib logLib = new LogLib(new AndroidLogStorage(mCache), new JvmLogDiagnostics());
+        assertTrue(logLib.isExternalStorageWritable());
+        FakeStorageStateSource readOnly = new FakeStorageStateSource();
+        readOnly.setState(Environment.MEDIA_MOUNTED_READ_ONLY);
+        logLib.setStorageStateCache(new StorageStateCache(readOnly));
+        assertFalse(logLib.isExternalStorageWritable());
+        assertTrue(logLib.isExternalStorageReadable());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void setStorageStateCache_rejectedForCustomStorage() {
+        LogLib logLib = new LogLib(new JvmLogStorage(new File(".")), new JvmLogDiagnostics());
+        logLib.setStorageStateCache(mCache);
+    }
+}
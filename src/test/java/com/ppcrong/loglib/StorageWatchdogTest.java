@@ -0,0 +1,180 @@
+package com.ppcrong.loglib;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Log pipeline degradation driven by a fake usable space source
+ */
+public class StorageWatchdogTest {
+
+    private static final long T0 = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mDir;
+    private FakeStorageStateSource mSource;
+    private StorageWatchdog mWatchdog;
+    private LogLib mLogLib;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mTempFolder.getRoot();
+        mSource = new FakeStorageStateSource();
+        mWatchdog = new StorageWatchdog(mDir, mSource);
+        mWatchdog.setThresholds(10000, 8000, 6000, 4000);
+        mLogLib = new LogLib(new JvmLogStorage(mDir), new JvmLogDiagnostics());
+        mLogLib.setStorageWatchdog(mWatchdog);
+    }
+
+    @After
+    public void tearDown() {
+        mLogLib.closeLogStore();
+        mLogLib.closeLogFile();
+        mWatchdog.stop();
+    }
+
+    @Test
+    public void states_degradeAndRecover() throws IOException {
+        // Two closed log files of this instance, the active one, a store segment and foreign files
+        writeClosedLog("old.log", T0);
+        writeClosedLog("older.log", T0 - 1000);
+        assertTrue(mLogLib.openLogStore(mDir, 4096));
+        mLogLib.writeLog("record\n");
+        File segment = mLogLib.getLogStore().getSegmentFile();
+        assertTrue(mLogLib.openLogFile(mDir, "active.log"));
+        File active = new File(mDir, "active.log");
+        File foreign = createFile("shared.log", 2000, T0 - 5000);
+        File export = createFile("export.zip", 2000, T0 - 4000);
+
+        mSource.setUsableSpace(20000);
+        assertEquals(StorageWatchdog.State.NORMAL, mWatchdog.refresh());
+        assertTrue(new File(mDir, "old.log").exists());
+
+        // COMPRESS: only the closed log files of this instance are gzipped
+        mSource.setUsableSpace(9000);
+        assertEquals(StorageWatchdog.State.COMPRESS, mWatchdog.refresh());
+        assertFalse(new File(mDir, "old.log").exists());
+        assertTrue(new File(mDir, "old.log.gz").exists());
+        assertTrue(new File(mDir, "older.log.gz").exists());
+        assertTrue(active.exists() && segment.exists() && foreign.exists() && export.exists());
+        assertFalse(new File(mDir, "shared.log.gz").exists());
+
+        // DROP_LOW_PRIORITY: debug is dropped, warning is kept
+        mSource.setUsableSpace(7000);
+        assertEquals(StorageWatchdog.State.DROP_LOW_PRIORITY, mWatchdog.refresh());
+        mLogLib.closeLogStore();
+        mLogLib.writeLog(Log.DEBUG, "debug\n");
+        mLogLib.writeLog(Log.WARN, "warn\n");
+        mLogLib.flushLogFile();
+        assertEquals("warn\n", mLogLib.readFile(mDir, "active.log"));
+
+        // DELETE_OLDEST: the oldest closed files of this instance go first, the segment being
+        // appended and the foreign files stay
+        assertTrue(mLogLib.openLogStore(mDir, 4096));
+        mSource.setUsableSpace(5000);
+        assertEquals(StorageWatchdog.State.DELETE_OLDEST, mWatchdog.refresh());
+        assertFalse(new File(mDir, "older.log.gz").exists());
+        assertTrue(segment.exists());
+        assertTrue(active.exists() && foreign.exists() && export.exists());
+
+        // MEMORY_ONLY: data is kept in memory, then drained when storage recovers
+        mSource.setUsableSpace(3000);
+        assertEquals(StorageWatchdog.State.MEMORY_ONLY, mWatchdog.refresh());
+        mLogLib.closeLogStore();
+        mLogLib.writeLog("in memory\n");
+        assertEquals("in memory\n", mLogLib.getMemoryLog());
+        mLogLib.flushLogFile();
+        assertEquals("warn\n", mLogLib.readFile(mDir, "active.log"));
+        assertTrue(active.exists() && foreign.exists() && export.exists());
+
+        mSource.setUsableSpace(20000);
+        assertEquals(StorageWatchdog.State.NORMAL, mWatchdog.refresh());
+        mLogLib.flushLogFile();
+        assertEquals("warn\nin memory\n", mLogLib.readFile(mDir, "active.log"));
+        assertEquals("", mLogLib.getMemoryLog());
+    }
+
+    @Test
+    public void memoryOnly_keepsTextAndBytesInOrder() {
+        assertTrue(mLogLib.openLogFile(mDir, "active.log"));
+        mSource.setUsableSpace(3000);
+        assertEquals(StorageWatchdog.State.MEMORY_ONLY, mWatchdog.refresh());
+        mLogLib.writeLog("text\n");
+        byte[] bytes = "[bytes]\n".getBytes();
+        mLogLib.writeLog(bytes, 1, 5);
+        mLogLib.writeLog(Log.ERROR, bytes, 0, bytes.length);
+        assertEquals("text\nbytes[bytes]\n", mLogLib.getMemoryLog());
+
+        mSource.setUsableSpace(20000);
+        assertEquals(StorageWatchdog.State.NORMAL, mWatchdog.refresh());
+        mLogLib.flushLogFile();
+        assertEquals("text\nbytes[bytes]\n", mLogLib.readFile(mDir, "active.log"));
+        assertEquals("", mLogLib.getMemoryLog());
+    }
+
+    @Test
+    public void memoryLog_keptUntilLogFileIsOpen() {
+        assertTrue(mLogLib.openLogFile(mDir, "first.log"));
+        mSource.setUsableSpace(3000);
+        assertEquals(StorageWatchdog.State.MEMORY_ONLY, mWatchdog.refresh());
+        mLogLib.writeLog("kept\n");
+        mLogLib.closeLogFile();
+        // Nothing is open, the data has nowhere to be drained
+        mLogLib.writeLog("dropped\n");
+        assertEquals("kept\n", mLogLib.getMemoryLog());
+
+        mSource.setUsableSpace(20000);
+        assertEquals(StorageWatchdog.State.NORMAL, mWatchdog.refresh());
+        assertEquals("kept\n", mLogLib.getMemoryLog());
+        assertTrue(mLogLib.openLogFile(mDir, "next.log"));
+        assertEquals("", mLogLib.getMemoryLog());
+        mLogLib.flushLogFile();
+        assertEquals("kept\n", mLogLib.readFile(mDir, "next.log"));
+    }
+
+    @Test
+    public void deleteOldest_keepsActiveStoreSegment() {
+        assertTrue(mLogLib.openLogStore(mDir, 4096));
+        byte[] record = new byte[1000];
+        for (int i = 0; i < 10; i++) mLogLib.writeLog(record);
+        File segment = mLogLib.getLogStore().getSegmentFile();
+        assertTrue(SegmentedLogStore.listSegments(mDir).length > 1);
+
+        mSource.setUsableSpace(0);
+        mLogLib.deleteOldestLogFiles(mDir, Long.MAX_VALUE);
+        File[] left = SegmentedLogStore.listSegments(mDir);
+        assertEquals(1, left.length);
+        assertEquals(segment, left[0]);
+    }
+
+    private void writeClosedLog(String name, long lastModified) {
+        assertTrue(mLogLib.openLogFile(mDir, name));
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 3000) sb.append("line ").append(sb.length()).append('\n');
+        mLogLib.writeLog(sb.toString());
+        mLogLib.closeLogFile();
+        assertTrue(new File(mDir, name).setLastModified(lastModified));
+    }
+
+    private File createFile(String name, int size, long lastModified) throws IOException {
+        File file = new File(mDir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[size]);
+        out.close();
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+}
@@ -0,0 +1,45 @@
+package com.ppcrong.loglib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * File helpers shared by the tests
+ */
+final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    /**
+     * Read the whole file
+     *
+     * @param file The file
+     * @return The file content
+     */
+    static byte[] readAll(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return readAll(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the stream to its end, the stream isn't closed
+     *
+     * @param in The stream
+     * @return The stream content
+     */
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+}